@@ -0,0 +1,17 @@
+package service.config;
+
+import javax.ws.rs.core.Configuration;
+
+// init-params of the application; a missing or blank one falls back to the default. Shared by the room,
+// user and rental builds, which each compile it in.
+public final class Settings {
+
+    private Settings() {
+    }
+
+    public static String get(Configuration config, String name, String fallback) {
+
+        Object value = config == null ? null : config.getProperty(name);
+        return value == null || value.toString().trim().isEmpty() ? fallback : value.toString().trim();
+    }
+}
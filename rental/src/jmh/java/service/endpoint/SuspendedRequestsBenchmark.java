@@ -0,0 +1,183 @@
+package service.endpoint;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import org.glassfish.grizzly.http.server.HttpHandler;
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.RequestExecutorProvider;
+import org.glassfish.grizzly.http.server.Response;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.strategies.SameThreadIOStrategy;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
+import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.openjdk.jmh.runner.IterationType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// requests a rental container serves at once while they wait on a slow service behind it. Every call to
+// rental/api/user/{id} goes on to a user service stub that answers after `downstreamMillis` without
+// holding a thread; with suspended requests the calls waiting downstream are bounded by the client pool,
+// not by the `containerThreads` serving rental:
+//   gradle jmh -Pjmh.args='SuspendedRequestsBenchmark -p containerThreads=4 -p downstreamMillis=50'
+// A container that blocked a thread per request would top out near containerThreads / downstreamMillis.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+@Threads(64)
+@State(Scope.Benchmark)
+public class SuspendedRequestsBenchmark {
+
+    private static final byte[] USER = "{\"id\":\"u1\",\"name\":\"Tenant\",\"email\":\"tenant@uni.nl\"}"
+            .getBytes(StandardCharsets.UTF_8);
+
+    @Param({"4"})
+    public int containerThreads;
+
+    @Param({"50"})
+    public int downstreamMillis;
+
+    private HttpServer server;
+    private ScheduledExecutorService answers;
+    private URL user;
+    private String token;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger mostWaiting = new AtomicInteger();
+    private int measured;
+
+    // rental and the stub share one server, rental finds the user service next to itself. Rental runs on
+    // the container threads; the stub answers on the thread that read the request, so a rental thread
+    // blocked on the stub never keeps the stub from answering.
+    @Setup
+    public void start() throws IOException {
+
+        this.answers = Executors.newSingleThreadScheduledExecutor();
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        ResourceConfig config = new ResourceConfig(RentalService.class)
+                .property("http.pool.max", "1000")
+                .property("http.pool.max.per.route", "1000");
+        this.server = GrizzlyHttpServerFactory.createHttpServer(
+                URI.create("http://localhost:" + port + "/rental/api/"), config, false);
+        TCPNIOTransport transport = this.server.getListener("grizzly").getTransport();
+        transport.setIOStrategy(SameThreadIOStrategy.getInstance());
+        transport.setWorkerThreadPoolConfig(ThreadPoolConfig.defaultConfig()
+                .setCorePoolSize(this.containerThreads).setMaxPoolSize(this.containerThreads));
+        this.server.getServerConfiguration().addHttpHandler(new HttpHandler() {
+            @Override
+            public void service(Request request, Response response) {
+                answerLater(response);
+            }
+
+            @Override
+            public RequestExecutorProvider getRequestExecutorProvider() {
+                return new RequestExecutorProvider.SameThreadProvider();
+            }
+        }, "/user/api");
+        this.server.start();
+        this.user = new URL("http://localhost:" + port + "/rental/api/user/u1");
+        this.token = JWT.create().withSubject("u1").withKeyId("u1").sign(Algorithm.HMAC256("rest_sot_assignment"));
+    }
+
+    @TearDown
+    public void stop() {
+
+        this.server.shutdownNow();
+        this.answers.shutdownNow();
+    }
+
+    @Setup(Level.Iteration)
+    public void reset(IterationParams iteration) {
+
+        if (iteration.getType() == IterationType.MEASUREMENT) {
+            this.measured++;
+        }
+        this.mostWaiting.set(this.waiting.get());
+    }
+
+    // the stub suspends its response and leaves it to a timer, so it never holds a container thread
+    private void answerLater(Response response) {
+
+        this.mostWaiting.accumulateAndGet(this.waiting.incrementAndGet(), Math::max);
+        response.suspend();
+        this.answers.schedule(() -> {
+            this.waiting.decrementAndGet();
+            try {
+                response.setContentType("application/json");
+                response.setContentLength(USER.length);
+                response.getOutputStream().write(USER);
+            } catch (IOException e) {
+                // the caller gave up
+            }
+            response.resume();
+        }, this.downstreamMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // JMH adds the counter up over threads and measured iterations, so only the first thread reports it
+    // in the first measured iteration: the most calls that waited downstream at once
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Downstream {
+
+        public int mostWaiting;
+        private boolean reports;
+
+        @Setup
+        public void index(ThreadParams thread) {
+            this.reports = thread.getThreadIndex() == 0;
+        }
+    }
+
+    @Benchmark
+    public int getUser(Downstream downstream) throws IOException {
+
+        HttpURLConnection connection = (HttpURLConnection) this.user.openConnection();
+        connection.setRequestProperty("Authorization", this.token);
+        connection.setRequestProperty("Accept", "application/json");
+        int status = connection.getResponseCode();
+        try (InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (body != null) {
+                body.readAllBytes();
+            }
+        }
+        if (status != 200) {
+            throw new IllegalStateException("rental answered " + status);
+        }
+        if (downstream.reports && this.measured == 1) {
+            downstream.mostWaiting = this.mostWaiting.get();
+        }
+        return status;
+    }
+}
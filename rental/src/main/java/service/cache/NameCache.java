@@ -0,0 +1,103 @@
+package service.cache;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// user names by id, least recently used first out once `capacity` is reached. Ids the user service
+// didn't know are kept as well, for a shorter time, so a room of a removed landlord doesn't ask again
+// on every listing. Each rental instance has its own, so a name changed through another one shows up
+// here at the latest after `ttlMillis`.
+public class NameCache {
+
+    private final int capacity;
+    private final long ttlMillis;
+    private final long missingTtlMillis;
+    private final LinkedHashMap<String, Entry> entries;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+
+    public NameCache(int capacity, long ttlMillis, long missingTtlMillis) {
+        this.capacity = Math.max(1, capacity);
+        this.ttlMillis = ttlMillis;
+        this.missingTtlMillis = missingTtlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+    }
+
+    // puts the known names of `ids` in `names`, null for the ones known to be missing, and the rest in `unknown`
+    public void lookup(Collection<String> ids, Map<String, String> names, List<String> unknown) {
+
+        long now = System.currentTimeMillis();
+        synchronized (this.entries) {
+            for (String id : ids) {
+                Entry entry = this.entries.get(id);
+                if (entry != null && entry.expires > now) {
+                    this.hits.incrementAndGet();
+                    names.put(id, entry.name);
+                    continue;
+                }
+                if (entry != null) {
+                    this.entries.remove(id);
+                }
+                this.misses.incrementAndGet();
+                unknown.add(id);
+            }
+        }
+    }
+
+    // a null name means the user service has no such user
+    public void put(String id, String name) {
+
+        long expires = System.currentTimeMillis() + (name == null ? this.missingTtlMillis : this.ttlMillis);
+        synchronized (this.entries) {
+            this.entries.put(id, new Entry(name, expires));
+            Iterator<Entry> oldest = this.entries.values().iterator();
+            while (this.entries.size() > this.capacity) {
+                oldest.next();
+                oldest.remove();
+                this.evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public void invalidate(String id) {
+
+        if (id == null) {
+            return;
+        }
+        synchronized (this.entries) {
+            this.entries.remove(id);
+        }
+    }
+
+    public int size() {
+
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    public long hits() { return this.hits.get(); }
+
+    public long misses() { return this.misses.get(); }
+
+    public long evictions() { return this.evictions.get(); }
+
+    private static final class Entry {
+
+        private final String name;
+        private final long expires;
+
+        private Entry(String name, long expires) {
+            this.name = name;
+            this.expires = expires;
+        }
+    }
+}
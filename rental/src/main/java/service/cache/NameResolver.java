@@ -0,0 +1,170 @@
+package service.cache;
+
+import service.client.ConnectionPool;
+
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// turns user ids into names: what the cache has right away, the rest in batches sent to the user service
+// side by side. At most `concurrency` batches are out at once over all requests, the others wait their
+// turn without holding a thread. A batch that hasn't answered within `timeoutMillis`, waiting included,
+// leaves its names null; when the answer does come it still fills the cache.
+public class NameResolver {
+
+    private static final int BATCH = 500;
+    private static final GenericType<Map<String, String>> NAMES = new GenericType<>() {};
+
+    private final NameCache cache;
+    private final WebTarget users;
+    private final int concurrency;
+    private final long timeoutMillis;
+    private final Queue<Runnable> waiting;
+    private final AtomicLong timeouts;
+    private int running;
+    private int released;
+    private boolean handing;
+
+    // `users` is the api root of the user service
+    public NameResolver(NameCache cache, WebTarget users, int concurrency, long timeoutMillis) {
+        this.cache = cache;
+        this.users = users;
+        this.concurrency = Math.max(1, concurrency);
+        this.timeoutMillis = timeoutMillis;
+        this.waiting = new ArrayDeque<>();
+        this.timeouts = new AtomicLong();
+    }
+
+    public CompletableFuture<Map<String, String>> resolve(Collection<String> ids, String token) {
+
+        Map<String, String> names = new HashMap<>();
+        List<String> unknown = new ArrayList<>();
+        this.cache.lookup(ids, names, unknown);
+        if (unknown.isEmpty()) {
+            return CompletableFuture.completedFuture(names);
+        }
+        List<CompletableFuture<Map<String, String>>> calls = new ArrayList<>();
+        for (int from = 0; from < unknown.size(); from += BATCH) {
+            calls.add(fetch(new ArrayList<>(unknown.subList(from, Math.min(unknown.size(), from + BATCH))), token));
+        }
+        return CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            for (CompletableFuture<Map<String, String>> call : calls) {
+                names.putAll(call.join());
+            }
+            return names;
+        });
+    }
+
+    public synchronized int inFlight() { return this.running; }
+
+    public synchronized int queued() { return this.waiting.size(); }
+
+    public long timeouts() { return this.timeouts.get(); }
+
+    private CompletableFuture<Map<String, String>> fetch(List<String> batch, String token) {
+
+        CompletableFuture<Map<String, String>> result = new CompletableFuture<>();
+        result.completeOnTimeout(null, this.timeoutMillis, TimeUnit.MILLISECONDS);
+        submit(() -> {
+            if (result.isDone()) {
+                finished();
+                return;
+            }
+            try {
+                this.users.path("names")
+                        .request(MediaType.APPLICATION_JSON)
+                        .header("Authorization", token)
+                        .rx()
+                        .post(Entity.entity(batch, MediaType.APPLICATION_JSON))
+                        .whenComplete((r, e) -> {
+                            finished();
+                            result.complete(e == null ? read(batch, r) : Collections.emptyMap());
+                        });
+            } catch (RuntimeException e) {
+                finished();
+                result.complete(Collections.emptyMap());
+            }
+        });
+        return result.thenApply(found -> {
+            if (found != null) {
+                return found;
+            }
+            this.timeouts.incrementAndGet();
+            return Collections.emptyMap();
+        });
+    }
+
+    private Map<String, String> read(List<String> batch, Response r) {
+
+        if (r.getStatus() != 200) {
+            ConnectionPool.release(r);
+            return Collections.emptyMap();
+        }
+        Map<String, String> found;
+        try {
+            found = r.readEntity(NAMES);
+        } catch (RuntimeException e) {
+            r.close();
+            return Collections.emptyMap();
+        }
+        for (String id : batch) {
+            this.cache.put(id, found.get(id));
+        }
+        return found;
+    }
+
+    private void submit(Runnable call) {
+
+        synchronized (this) {
+            if (this.running >= this.concurrency) {
+                this.waiting.add(call);
+                return;
+            }
+            this.running++;
+        }
+        call.run();
+    }
+
+    // hands the slot to the next waiting batch, if any. A batch that timed out while it waited gives the
+    // slot straight back, so one thread hands out slots in a loop while the others only count theirs in;
+    // calling the next batch from here instead would nest one call deeper for every batch that gave up.
+    private void finished() {
+
+        synchronized (this) {
+            this.released++;
+            if (this.handing) {
+                return;
+            }
+            this.handing = true;
+        }
+        while (true) {
+            Runnable next;
+            synchronized (this) {
+                if (this.released == 0) {
+                    this.handing = false;
+                    return;
+                }
+                this.released--;
+                next = this.waiting.poll();
+                if (next == null) {
+                    this.running--;
+                    continue;
+                }
+            }
+            next.run();
+        }
+    }
+}
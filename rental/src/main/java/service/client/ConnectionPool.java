@@ -0,0 +1,92 @@
+package service.client;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.core.Response;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// kept-alive connections to the user and room services, shared by every call the rental service makes.
+// A connection is reused until it has been idle for `idleMillis` or open for `keepAliveMillis`; a call
+// that finds every connection to its service in use waits at most `connectMillis` for one.
+public class ConnectionPool {
+
+    private final PoolingHttpClientConnectionManager connections;
+    private final ScheduledExecutorService evictor;
+    private final Client client;
+
+    public ConnectionPool(int maxTotal, int maxPerRoute, long keepAliveMillis, long idleMillis, int connectMillis,
+                          int readMillis) {
+
+        this.connections = new PoolingHttpClientConnectionManager(keepAliveMillis, TimeUnit.MILLISECONDS);
+        this.connections.setMaxTotal(maxTotal);
+        this.connections.setDefaultMaxPerRoute(maxPerRoute);
+        // a connection the other side may have closed while it sat in the pool is checked before reuse
+        this.connections.setValidateAfterInactivity((int) Math.min(Integer.MAX_VALUE, idleMillis / 2));
+
+        RequestConfig timeouts = RequestConfig.custom()
+                .setConnectTimeout(connectMillis)
+                .setConnectionRequestTimeout(connectMillis)
+                .setSocketTimeout(readMillis)
+                .build();
+        ClientConfig config = new ClientConfig()
+                .property(ApacheClientProperties.CONNECTION_MANAGER, this.connections)
+                .property(ApacheClientProperties.REQUEST_CONFIG, timeouts)
+                .connectorProvider(new ApacheConnectorProvider());
+        this.client = ClientBuilder.newClient(config);
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "rental-connection-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long every = Math.max(1000, idleMillis / 2);
+        this.evictor.scheduleWithFixedDelay(() -> {
+            this.connections.closeExpiredConnections();
+            this.connections.closeIdleConnections(idleMillis, TimeUnit.MILLISECONDS);
+        }, every, every, TimeUnit.MILLISECONDS);
+    }
+
+    public Client client() { return this.client; }
+
+    // connections handed out right now
+    public int leased() { return stats().getLeased(); }
+
+    // open connections waiting in the pool for the next call
+    public int available() { return stats().getAvailable(); }
+
+    // calls waiting for a connection because their service is at its limit
+    public int pending() { return stats().getPending(); }
+
+    public int max() { return stats().getMax(); }
+
+    public void close() {
+
+        this.evictor.shutdownNow();
+        this.client.close();
+    }
+
+    // reads what is left of an answer before closing it. Closing it unread would drop its connection
+    // instead of handing it back to the pool.
+    public static void release(Response r) {
+
+        try {
+            r.bufferEntity();
+        } catch (ProcessingException | IllegalStateException e) {
+            // nothing more to read, or the connection is gone anyway
+        } finally {
+            r.close();
+        }
+    }
+
+    private PoolStats stats() { return this.connections.getTotalStats(); }
+}
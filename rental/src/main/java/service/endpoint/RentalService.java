@@ -6,42 +6,141 @@ import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.exceptions.JWTDecodeException;
 import com.auth0.jwt.exceptions.JWTVerificationException;
 import com.auth0.jwt.interfaces.DecodedJWT;
-import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.RequestEntityProcessing;
+import service.cache.NameCache;
+import service.cache.NameResolver;
+import service.client.ConnectionPool;
+import service.config.Settings;
 import service.models.*;
+import service.routing.RoomShard;
+import service.routing.RoomShards;
+import service.routing.RoomShards.Gathered;
+import service.routing.ShardRing;
+import service.routing.ShardedImport;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Singleton;
 import javax.ws.rs.*;
 import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation.Builder;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.*;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 
 @Singleton
 @Path("/")
 public class RentalService {
 
-    private WebTarget client;
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 1000;
+    private static final int SEARCH_LIMIT = 10;
+    private static final int MAX_SEARCH_LIMIT = 50;
+
+    private volatile WebTarget client;
+    private RoomShards shards;
+    private String shardUrls;
     private JWTVerifier verifier;
     private String test;
+    private ConnectionPool pool;
+    private NameCache names;
+    private NameResolver resolver;
+    private int nameCalls;
+    private long nameTimeout;
 
-    public RentalService() {
+    public RentalService(@Context Configuration config) {
         this.client = null;
         this.verifier = JWT.require(Algorithm.HMAC256("rest_sot_assignment")).build();
+        this.shardUrls = Settings.get(config, "room.shards", "");
+        this.pool = new ConnectionPool(Integer.parseInt(Settings.get(config, "http.pool.max", "200")),
+                Integer.parseInt(Settings.get(config, "http.pool.max.per.route", "50")),
+                Long.parseLong(Settings.get(config, "http.keepalive.ms", "300000")),
+                Long.parseLong(Settings.get(config, "http.idle.ms", "30000")),
+                Integer.parseInt(Settings.get(config, "http.connect.timeout.ms", "2000")),
+                Integer.parseInt(Settings.get(config, "http.read.timeout.ms", "30000")));
+        this.names = new NameCache(Integer.parseInt(Settings.get(config, "names.cache.size", "10000")),
+                Long.parseLong(Settings.get(config, "names.cache.ttl.ms", "60000")),
+                Long.parseLong(Settings.get(config, "names.cache.missing.ttl.ms", "5000")));
+        this.nameCalls = Integer.parseInt(Settings.get(config, "names.concurrency", "8"));
+        this.nameTimeout = Long.parseLong(Settings.get(config, "names.timeout.ms", "2000"));
+    }
+
+    // the pool's connections and its evictor thread would outlive an undeployed application
+    @PreDestroy
+    public void close() {
+
+        this.pool.close();
     }
 
+    // built once by the first request; shards and resolver are written before the volatile client, so a
+    // request that finds client set also sees them
     private void setClient(UriInfo uri) {
 
-        if (this.client == null) {
-            String u = getUriBase(uri.getBaseUri().toString());
-            URI baseUri = UriBuilder.fromUri(u).build();
-            Client client = ClientBuilder.newClient(new ClientConfig());
-            this.client = client.target(baseUri);
+        if (this.client != null) {
+            return;
+        }
+        synchronized (this) {
+            if (this.client == null) {
+                String u = getUriBase(uri.getBaseUri().toString());
+                URI baseUri = UriBuilder.fromUri(u).build();
+                Client client = this.pool.client();
+                this.shards = roomShards(client, client.target(baseUri).path("room/api"));
+                this.resolver = new NameResolver(this.names, client.target(baseUri).path("user/api"),
+                        this.nameCalls, this.nameTimeout);
+                this.client = client.target(baseUri);
+            }
+        }
+    }
+
+    // shards are separated by commas, the primary of each comes first with its replicas after it, separated
+    // by |; the primary names the shard on the ring. Without a list every room call goes to the room service
+    // next to this one.
+    private RoomShards roomShards(Client client, WebTarget local) {
+
+        Map<String, RoomShard> shards = new LinkedHashMap<>();
+        for (String shard : this.shardUrls.split(",")) {
+            List<WebTarget> targets = new ArrayList<>();
+            for (String url : shard.split("\\|")) {
+                if (!url.trim().isEmpty()) {
+                    targets.add(client.target(url.trim()));
+                }
+            }
+            if (!targets.isEmpty()) {
+                String primary = shard.split("\\|")[0].trim();
+                shards.put(primary, new RoomShard(targets.get(0), targets.subList(1, targets.size())));
+            }
+        }
+        if (shards.isEmpty()) {
+            shards.put("local", new RoomShard(local, new ArrayList<>()));
+        }
+        return new RoomShards(new ShardRing<>(shards));
+    }
+
+    private int pageLimit(Integer limit) {
+
+        if (limit == null) {
+            return DEFAULT_LIMIT;
         }
+        return Math.max(1, Math.min(limit, MAX_LIMIT));
+    }
+
+    private boolean byRent(Integer minRent, Integer maxRent, String sort) {
+
+        return minRent != null || maxRent != null || "rent".equals(sort);
     }
 
     private String getUriBase(String uri) {
@@ -61,69 +160,113 @@ public class RentalService {
         return verifyToken(token).getKeyId();
     }
 
-    private String getLandlord(Room room, String token) {
+    // swaps the landlord and tenant ids of the rooms for names, asking the user service only for the ones
+    // not cached. Ids it doesn't know or didn't answer for in time, empty tenants included, become null.
+    private CompletableFuture<Response> named(Gathered found, String token) {
 
-        Builder req = this.client
-                .path("user/api/name/" + room.getLandlord())
+        if (found.failed()) {
+            return done(found.getResponse());
+        }
+        List<Room> rooms = found.getRooms();
+        Set<String> ids = new LinkedHashSet<>();
+        for (Room room : rooms) {
+            if (room.getLandlord() != null && !room.getLandlord().isEmpty()) {
+                ids.add(room.getLandlord());
+            }
+            if (room.getTenant() != null && !room.getTenant().isEmpty()) {
+                ids.add(room.getTenant());
+            }
+        }
+        return this.resolver.resolve(ids, token).thenApply(names -> {
+            for (Room room : rooms) {
+                room.setLandlord(room.getLandlord() == null ? null : names.get(room.getLandlord()));
+                room.setTenant(room.getTenant() == null ? null : names.get(room.getTenant()));
+            }
+            return Response.status(200).entity(rooms).type(MediaType.APPLICATION_JSON).tag(found.getTag())
+                    .header("X-Next-Cursor", found.getNext()).build();
+        });
+    }
+
+    private CompletionStage<Response> userById(String id, String token) {
+
+        Builder reqBuilder1 = this.client
+                .path("user/api/user/" + id)
                 .request(MediaType.APPLICATION_JSON)
                 .header("Authorization", token);
-        Response r = req.get();
-        if(r.getStatus() == 200) {
-            return r.readEntity(String.class);
-        }
-        return null;
+        return reqBuilder1.rx().get();
     }
 
-    private String getTenant(Room room, String token) {
+    // whether a student can book lives in the user service; the cached name goes in case it changed too
+    private CompletionStage<Response> updateUser(User user, String token) {
 
         Builder req = this.client
-                .path("user/api/name/" + room.getTenant())
+                .path("user/api/user/update")
                 .request(MediaType.APPLICATION_JSON)
                 .header("Authorization", token);
-        Response r = req.get();
-        if(r.getStatus() == 200) {
-            return r.readEntity(String.class);
-        }
-        return null;
+        return req.rx().put(Entity.entity(user, MediaType.APPLICATION_JSON)).thenApply(r -> {
+            ConnectionPool.release(r);
+            this.names.invalidate(user.getId());
+            return r;
+        });
+    }
+
+    private static CompletableFuture<Response> done(Response r) {
+        return CompletableFuture.completedFuture(r);
+    }
+
+    // finishes a suspended request from the callback that completes `response`; a downstream failure
+    // still ends as a 500, the way it did when it was thrown on the request thread
+    private static void resume(AsyncResponse async, CompletionStage<Response> response) {
+
+        response.whenComplete((r, e) -> {
+            if (e == null) {
+                async.resume(r);
+            } else {
+                async.resume(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            }
+        });
     }
 
     // unprotected routes
     @POST
     @Path("new/user")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response register(@FormParam("email") String email, @FormParam("name") String name,
-                             @FormParam("role") String role, @FormParam("password") String password,
-                             @Context UriInfo uri) {
+    public void register(@FormParam("email") String email, @FormParam("name") String name,
+                         @FormParam("role") String role, @FormParam("password") String password,
+                         @Context UriInfo uri, @Suspended AsyncResponse async) {
 
         setClient(uri);
         if (role.equals("student") || role.equals("landlord")) {
             Builder reqBuilder1 = this.client.path("user/api/register")
                     .request(MediaType.TEXT_PLAIN).accept(MediaType.APPLICATION_JSON);
-            return reqBuilder1.post(Entity.entity(new User(email, name, password, role),
-                    MediaType.APPLICATION_JSON));
+            resume(async, reqBuilder1.rx().post(Entity.entity(new User(email, name, password, role),
+                    MediaType.APPLICATION_JSON)));
+            return;
         }
-        return Response.status(422).build();
+        async.resume(Response.status(422).build());
     }
 
     @POST
     @Path("user/authenticate")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response authenticate(@FormParam("email") String email, @FormParam("password") String password,
-                                 @Context UriInfo uri) {
+    public void authenticate(@FormParam("email") String email, @FormParam("password") String password,
+                             @Context UriInfo uri, @Suspended AsyncResponse async) {
 
         setClient(uri);
         Form form = new Form();
         form.param("email", email);
         form.param("password", password);
         Builder reqBuilder1 = this.client.path("user/api/authenticate").request(MediaType.APPLICATION_JSON);
-        return reqBuilder1.post(Entity.entity(form, MediaType.APPLICATION_FORM_URLENCODED_TYPE));
+        resume(async, reqBuilder1.rx().post(Entity.entity(form, MediaType.APPLICATION_FORM_URLENCODED_TYPE)));
     }
 
     //protected routes
     @GET
     @Path("user/all")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getUsers(@HeaderParam("Authorization") String token, @Context UriInfo uri) {
+    public void getUsers(@HeaderParam("Authorization") String token,
+                         @HeaderParam("If-None-Match") String ifNoneMatch, @Context UriInfo uri,
+                         @Suspended AsyncResponse async) {
 
         setClient(uri);
         try {
@@ -131,37 +274,34 @@ public class RentalService {
             Builder reqBuilder1 = this.client
                     .path("user/api/all")
                     .request(MediaType.APPLICATION_JSON)
-                    .header("Authorization", token);
-            return reqBuilder1.get();
+                    .header("Authorization", token)
+                    .header("If-None-Match", ifNoneMatch);
+            resume(async, reqBuilder1.rx().get());
         } catch (JWTVerificationException e) {
-            return Response.status(401).entity(e).build();
+            async.resume(Response.status(401).entity(e).build());
         }
     }
 
     @GET
     @Path("user/{id}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getUserById(@PathParam("id") String id, @HeaderParam("Authorization") String token,
-                                @Context UriInfo uri) {
+    public void getUserById(@PathParam("id") String id, @HeaderParam("Authorization") String token,
+                            @Context UriInfo uri, @Suspended AsyncResponse async) {
 
         setClient(uri);
         try {
             verifyToken(token);
-            Builder reqBuilder1 = this.client
-                    .path("user/api/user/" + id)
-                    .request(MediaType.APPLICATION_JSON)
-                    .header("Authorization", token);
-            return reqBuilder1.get();
+            resume(async, userById(id, token));
         } catch (JWTVerificationException e) {
-            return Response.status(401).build();
+            async.resume(Response.status(401).build());
         }
     }
 
     @DELETE
     @Path("delete/user/{id}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response removeUser(@PathParam("id") String id, @HeaderParam("Authorization") String token,
-                               @Context UriInfo uri) {
+    public void removeUser(@PathParam("id") String id, @HeaderParam("Authorization") String token,
+                           @Context UriInfo uri, @Suspended AsyncResponse async) {
 
         setClient(uri);
         try {
@@ -171,368 +311,403 @@ public class RentalService {
                     .path("user/api/role/" + id)
                     .request(MediaType.APPLICATION_JSON)
                     .header("Authorization", token);
-            Response r = reqBuilder.get();
-
-            //if landlord delete all rooms, if user remove all bookings/rents and free rooms
-            String role = r.readEntity(String.class);
-            if (role.equals("landlord")) {
-                Builder req = this.client
-                        .path("room/api/rooms/" + id + "/delete")
-                        .request(MediaType.APPLICATION_JSON)
-                        .header("Authorization", token);
-                req.delete();
-            } else if (role.equals("student")) {
-                Builder req = this.client
-                        .path("room/api/rooms/" + id + "/update")
-                        .request(MediaType.APPLICATION_JSON)
-                        .header("Authorization", token);
-                req.get();
-            }
-
-            //delete user
-            Builder reqBuilder1 = this.client
-                    .path("user/api/remove/" + id)
-                    .request(MediaType.APPLICATION_JSON)
-                    .header("Authorization", token);
-            return reqBuilder1.delete();
+            resume(async, reqBuilder.rx().get().thenCompose(r -> {
+                //if landlord delete all rooms, if user remove all bookings/rents and free rooms
+                String role = r.readEntity(String.class);
+                List<CompletableFuture<Response>> cleanups = new ArrayList<>();
+                if (role.equals("landlord")) {
+                    for (RoomShard shard : this.shards.all()) {
+                        Builder req = shard.primary()
+                                .path("rooms/" + id + "/delete")
+                                .request(MediaType.APPLICATION_JSON)
+                                .header("Authorization", token);
+                        cleanups.add(req.rx().delete().toCompletableFuture());
+                    }
+                } else if (role.equals("student")) {
+                    for (RoomShard shard : this.shards.all()) {
+                        Builder req = shard.primary()
+                                .path("rooms/" + id + "/update")
+                                .request(MediaType.APPLICATION_JSON)
+                                .header("Authorization", token);
+                        cleanups.add(req.rx().get().toCompletableFuture());
+                    }
+                }
+                return CompletableFuture.allOf(cleanups.toArray(new CompletableFuture<?>[0])).thenCompose(cleaned -> {
+                    cleanups.forEach(cleanup -> ConnectionPool.release(cleanup.join()));
+                    //delete user
+                    Builder reqBuilder1 = this.client
+                            .path("user/api/remove/" + id)
+                            .request(MediaType.APPLICATION_JSON)
+                            .header("Authorization", token);
+                    return reqBuilder1.rx().delete();
+                });
+            }).thenApply(removed -> {
+                this.names.invalidate(id);
+                return removed;
+            }));
         } catch (JWTVerificationException e) {
-            return Response.status(401).build();
+            async.resume(Response.status(401).build());
         }
     }
 
     @GET
     @Path("room/all")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getAllRooms(@HeaderParam("Authorization") String token, @Context UriInfo uri) {
+    public void getAllRooms(@QueryParam("limit") Integer limit, @QueryParam("cursor") String cursor,
+                            @HeaderParam("Authorization") String token,
+                            @HeaderParam("If-None-Match") String ifNoneMatch, @Context UriInfo uri,
+                            @Suspended AsyncResponse async) {
 
         setClient(uri);
         try {
             verifyToken(token);
-            Builder reqBuilder1 = this.client
-                    .path("room/api/all")
-                    .request(MediaType.APPLICATION_JSON)
-                    .header("Authorization", token);
-            Response r =  reqBuilder1.get();
-            if (r.getStatus() == 200) {
-                GenericType<ArrayList<Room>> ent = new GenericType<>() {};
-                List<Room> rooms = r.readEntity(ent);
-                for (Room room : rooms) {
-                    String landlord = getLandlord(room, token);
-                    String tenant = getTenant(room, token);
-                    room.setLandlord(landlord);
-                    room.setTenant(tenant);
-                }
-                return Response.status(200).entity(rooms).type(MediaType.APPLICATION_JSON).build();
-            }
-            return r;
+            resume(async, this.shards.page(t -> t
+                    .path("all")
+                    .queryParam("cursor", cursor), pageLimit(limit), false, token, ifNoneMatch)
+                    .thenCompose(page -> named(page, token)));
         } catch (JWTVerificationException e) {
-            return Response.status(401).build();
+            async.resume(Response.status(401).build());
         }
     }
 
     @GET
     @Path("room/free")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getFreeRooms(@HeaderParam("Authorization") String token, @Context UriInfo uri) {
+    public void getFreeRooms(@QueryParam("minRent") Integer minRent, @QueryParam("maxRent") Integer maxRent,
+                             @QueryParam("sort") String sort, @QueryParam("limit") Integer limit,
+                             @QueryParam("cursor") String cursor, @HeaderParam("Authorization") String token,
+                             @HeaderParam("If-None-Match") String ifNoneMatch, @Context UriInfo uri,
+                             @Suspended AsyncResponse async) {
 
         setClient(uri);
         try {
             verifyToken(token);
-            Builder reqBuilder1 = this.client
-                    .path("room/api/free")
-                    .request(MediaType.APPLICATION_JSON)
-                    .header("Authorization", token);
-            Response r = reqBuilder1.get();
-            if (r.getStatus() == 200) {
-                GenericType<ArrayList<Room>> ent = new GenericType<>() {};
-                List<Room> rooms = r.readEntity(ent);
-                for (Room room : rooms) {
-                    String landlord = getLandlord(room, token);
-                    String tenant = getTenant(room, token);
-                    room.setLandlord(landlord);
-                    room.setTenant(tenant);
-                }
-                return Response.status(200).entity(rooms).type(MediaType.APPLICATION_JSON).build();
-            }
-            return r;
+            resume(async, this.shards.page(t -> t
+                    .path("free")
+                    .queryParam("minRent", minRent)
+                    .queryParam("maxRent", maxRent)
+                    .queryParam("sort", sort)
+                    .queryParam("cursor", cursor), pageLimit(limit), byRent(minRent, maxRent, sort), token, ifNoneMatch)
+                    .thenCompose(page -> named(page, token)));
         } catch (JWTVerificationException e) {
-            return Response.status(401).build();
+            async.resume(Response.status(401).build());
         }
     }
 
     @GET
     @Path("room/{id}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getRoomById(@PathParam("id") String id, @HeaderParam("Authorization") String token,
-                                @Context UriInfo uri) {
+    public void getRoomById(@PathParam("id") String id, @HeaderParam("Authorization") String token,
+                            @Context UriInfo uri, @Suspended AsyncResponse async) {
 
         setClient(uri);
         try {
             verifyToken(token);
-            Builder reqBuilder1 = this.client
-                    .path("room/api/room/" + id)
-                    .request(MediaType.APPLICATION_JSON)
-                    .header("Authorization", token);
-            return reqBuilder1.get();
+            resume(async, this.shards.find(id, token));
         } catch (JWTVerificationException e) {
-            return Response.status(401).build();
+            async.resume(Response.status(401).build());
         }
     }
 
     @GET
     @Path("room/city")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getRoomByCity(@QueryParam("city") String city, @HeaderParam("Authorization") String token,
-                                  @Context UriInfo uri) {
+    public void getRoomByCity(@QueryParam("city") String city, @QueryParam("minRent") Integer minRent,
+                              @QueryParam("maxRent") Integer maxRent, @QueryParam("sort") String sort,
+                              @QueryParam("limit") Integer limit, @QueryParam("cursor") String cursor,
+                              @HeaderParam("Authorization") String token,
+                              @HeaderParam("If-None-Match") String ifNoneMatch, @Context UriInfo uri,
+                              @Suspended AsyncResponse async) {
 
         setClient(uri);
         try {
             verifyToken(token);
-            Builder reqBuilder1 = this.client
-                    .path("room/api/rooms")
+            resume(async, this.shards.page(this.shards.forCity(city), t -> t
+                    .path("rooms")
                     .queryParam("city", city)
-                    .request(MediaType.APPLICATION_JSON)
-                    .header("Authorization", token);
-            Response r = reqBuilder1.get();
-            if (r.getStatus() == 200) {
-                GenericType<ArrayList<Room>> ent = new GenericType<>() {};
-                List<Room> rooms = r.readEntity(ent);
-                for (Room room : rooms) {
-                    String landlord = getLandlord(room, token);
-                    String tenant = getTenant(room, token);
-                    room.setLandlord(landlord);
-                    room.setTenant(tenant);
-                }
-                return Response.status(200).entity(rooms).type(MediaType.APPLICATION_JSON).build();
-            }
-            return r;
+                    .queryParam("minRent", minRent)
+                    .queryParam("maxRent", maxRent)
+                    .queryParam("sort", sort)
+                    .queryParam("cursor", cursor), pageLimit(limit), byRent(minRent, maxRent, sort), token, ifNoneMatch)
+                    .thenCompose(page -> named(page, token)));
         } catch (JWTVerificationException e) {
-            return Response.status(401).build();
+            async.resume(Response.status(401).build());
         }
     }
 
     @GET
     @Path("room/landlord")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getRoomsByLandlord(@HeaderParam("Authorization") String token, @Context UriInfo uri) {
+    public void getRoomsByLandlord(@QueryParam("limit") Integer limit, @QueryParam("cursor") String cursor,
+                                   @HeaderParam("Authorization") String token,
+                                   @HeaderParam("If-None-Match") String ifNoneMatch, @Context UriInfo uri,
+                                   @Suspended AsyncResponse async) {
 
         setClient(uri);
         try {
             verifyToken(token);
             String id = getTokenId(token);
-            Builder req = this.client
-                    .path("room/api/rooms/landlord/" + id)
-                    .request(MediaType.APPLICATION_JSON)
-                    .header("Authorization", token);
-            Response r = req.get();
-            if (r.getStatus() == 200) {
-                GenericType<ArrayList<Room>> ent = new GenericType<>() {};
-                List<Room> rooms = r.readEntity(ent);
-                for (Room room : rooms) {
-                    String landlord = getLandlord(room, token);
-                    String tenant = getTenant(room, token);
-                    room.setLandlord(landlord);
-                    room.setTenant(tenant);
-                }
-                return Response.status(200).entity(rooms).type(MediaType.APPLICATION_JSON).build();
-            }
-            return r;
+            resume(async, this.shards.page(t -> t
+                    .path("rooms/landlord/" + id)
+                    .queryParam("cursor", cursor), pageLimit(limit), false, token, ifNoneMatch)
+                    .thenCompose(page -> named(page, token)));
         } catch (JWTVerificationException e) {
-            return Response.status(401).build();
+            async.resume(Response.status(401).build());
+        }
+    }
+
+    @GET
+    @Path("room/search")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void searchRooms(@QueryParam("q") String query, @QueryParam("limit") Integer limit,
+                            @HeaderParam("Authorization") String token, @Context UriInfo uri,
+                            @Suspended AsyncResponse async) {
+
+        setClient(uri);
+        try {
+            verifyToken(token);
+            int k = limit == null ? SEARCH_LIMIT : Math.max(1, Math.min(limit, MAX_SEARCH_LIMIT));
+            resume(async, this.shards.search(t -> t
+                    .path("rooms/search")
+                    .queryParam("q", query)
+                    .queryParam("limit", k), k, token)
+                    .thenCompose(found -> named(found, token)));
+        } catch (JWTVerificationException e) {
+            async.resume(Response.status(401).build());
         }
     }
 
     @GET
     @Path("room/tenant")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getRoomsByTenant(@HeaderParam("Authorization") String token, @Context UriInfo uri) {
+    public void getRoomsByTenant(@HeaderParam("Authorization") String token, @Context UriInfo uri,
+                                 @Suspended AsyncResponse async) {
 
         setClient(uri);
         try {
             String id = getTokenId(token);
-            Builder req = this.client
-                    .path("room/api/rooms/tenant/" + id)
-                    .request(MediaType.APPLICATION_JSON)
-                    .header("Authorization", token);
-            Response r = req.get();
-            if (r.getStatus() == 200) {
-                GenericType<ArrayList<Room>> ent = new GenericType<>() {};
-                List<Room> rooms = r.readEntity(ent);
-                for (Room room : rooms) {
-                    String landlord = getLandlord(room, token);
-                    String tenant = getTenant(room, token);
-                    room.setLandlord(landlord);
-                    room.setTenant(tenant);
-                }
-                return Response.status(200).entity(rooms).type(MediaType.APPLICATION_JSON).build();
-            }
-            return r;
+            resume(async, getRoomsByTenantId(id, token, uri));
         } catch (JWTVerificationException e) {
-            return Response.status(401).build();
+            async.resume(Response.status(401).build());
         }
     }
 
     @POST
     @Path("new/room")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response newRoom(@FormParam("address") String address,
-                            @FormParam("city") String city,
-                            @FormParam("rent") int rent,
-                            @HeaderParam("Authorization") String token,
-                            @Context UriInfo uri) {
+    public void newRoom(@FormParam("address") String address,
+                        @FormParam("city") String city,
+                        @FormParam("rent") int rent,
+                        @HeaderParam("Authorization") String token,
+                        @Context UriInfo uri, @Suspended AsyncResponse async) {
 
         setClient(uri);
         try {
             verifyToken(token);
             String id = getTokenId(token);
             Room room = new Room(address, city, id, rent);
-            Builder reqBuilder1 = this.client
-                    .path("room/api/new")
+            Builder reqBuilder1 = this.shards.forCity(city).primary()
+                    .path("new")
                     .request(MediaType.APPLICATION_JSON)
                     .header("Authorization", token);
-            return reqBuilder1.post(Entity.entity(room, MediaType.APPLICATION_JSON));
+            resume(async, reqBuilder1.rx().post(Entity.entity(room, MediaType.APPLICATION_JSON)));
+        } catch (JWTVerificationException e) {
+            async.resume(Response.status(401).build());
+        }
+    }
+
+    // stays synchronous: the upload is streamed on to the room services as it is read, and reading a
+    // servlet request body blocks whichever thread does it
+    @POST
+    @Path("new/rooms")
+    @Consumes({MediaType.APPLICATION_JSON, "application/x-ndjson"})
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response importRooms(InputStream body, @HeaderParam("Content-Type") String contentType,
+                                @HeaderParam("Authorization") String token, @Context UriInfo uri) {
+
+        setClient(uri);
+        try {
+            verifyToken(token);
+            if (this.shards.size() > 1) {
+                return new ShardedImport(this.shards, token).run(body, contentType);
+            }
+            Builder req = this.shards.forCity(null).primary()
+                    .path("rooms/import")
+                    .request(MediaType.APPLICATION_JSON)
+                    .header("Authorization", token)
+                    .property(ClientProperties.REQUEST_ENTITY_PROCESSING, RequestEntityProcessing.CHUNKED);
+            return req.post(Entity.entity(body, contentType == null ? MediaType.APPLICATION_JSON : contentType));
         } catch (JWTVerificationException e) {
             return Response.status(401).build();
+        } catch (IOException e) {
+            return Response.status(400).entity("Could not read rooms!").type(MediaType.TEXT_PLAIN).build();
         }
     }
 
     @GET
     @Path("book/room/{id}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response bookRoom(@PathParam("id") String id, @HeaderParam("Authorization") String token,
-                             @Context UriInfo uri) {
+    public void bookRoom(@PathParam("id") String id, @HeaderParam("Authorization") String token,
+                         @Context UriInfo uri, @Suspended AsyncResponse async) {
 
         setClient(uri);
         try {
             DecodedJWT jwt = verifyToken(token);
-            Response r = getUserById(jwt.getKeyId(), token, uri);
-            if (r.getStatus() == 200) {
+            resume(async, userById(jwt.getKeyId(), token).thenCompose(r -> {
+                if (r.getStatus() != 200) {
+                    return done(r);
+                }
                 User user = r.readEntity(User.class);
-                if (user.getCanBook()) {
-                    Builder reqBuilder1 = this.client
-                            .path("room/api/room/" + id + "/book")
+                if (!user.getCanBook()) {
+                    return done(Response.status(401).entity("User can't book!").type(MediaType.TEXT_PLAIN).build());
+                }
+                return this.shards.owner(id, token).thenCompose(shard -> {
+                    if (shard == null) {
+                        return done(Response.status(404).entity("Room not found!").type(MediaType.TEXT_PLAIN).build());
+                    }
+                    Builder reqBuilder1 = shard
+                            .path("room/" + id + "/book")
                             .request(MediaType.APPLICATION_JSON)
                             .header("Authorization", token);
-                    r = reqBuilder1.get();
-                    if (r.getStatus() == 204) {
+                    return reqBuilder1.rx().get().thenCompose(booked -> {
+                        if (booked.getStatus() != 204) {
+                            return done(booked);
+                        }
                         user.setCanBook(false);
-                        Builder req = this.client
-                                .path("user/api/user/update")
-                                .request(MediaType.APPLICATION_JSON)
-                                .header("Authorization", token);
-                        req.put(Entity.entity(user, MediaType.APPLICATION_JSON));
-                    }
-                    return r;
-                }
-                return Response.status(401).entity("User can't book!").type(MediaType.TEXT_PLAIN).build();
-            }
-            return r;
+                        return updateUser(user, token).thenApply(updated -> booked);
+                    });
+                });
+            }));
         } catch (JWTVerificationException e) {
-            return Response.status(401).entity("User not authorized!").type(MediaType.TEXT_PLAIN).build();
+            async.resume(Response.status(401).entity("User not authorized!").type(MediaType.TEXT_PLAIN).build());
         }
     }
 
     @GET
     @Path("rent/room/{id}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response rentRoom(@PathParam("id") String id, @HeaderParam("Authorization") String token,
-                             @Context UriInfo uri) {
+    public void rentRoom(@PathParam("id") String id, @HeaderParam("Authorization") String token,
+                         @Context UriInfo uri, @Suspended AsyncResponse async) {
 
         setClient(uri);
         try {
             verifyToken(token);
-            Builder reqBuilder1 = this.client
-                    .path("room/api/room/" + id + "/rent")
-                    .request(MediaType.APPLICATION_JSON)
-                    .header("Authorization", token);
-            Response r = reqBuilder1.get();
-            if (r.getStatus() == 204) {
-                Room room = getRoomById(id, token, uri).readEntity(Room.class);
-                User user = getUserById(room.getTenant(), token, uri).readEntity(User.class);
-                user.setCanBook(true);
-                Builder req = this.client
-                        .path("user/api/user/update")
+            resume(async, this.shards.owner(id, token).thenCompose(shard -> {
+                if (shard == null) {
+                    return done(Response.status(404).entity("Room not found!").type(MediaType.TEXT_PLAIN).build());
+                }
+                Builder reqBuilder1 = shard
+                        .path("room/" + id + "/rent")
                         .request(MediaType.APPLICATION_JSON)
                         .header("Authorization", token);
-                req.put(Entity.entity(user, MediaType.APPLICATION_JSON));
-            }
-            return r;
+                return reqBuilder1.rx().get().thenCompose(r -> {
+                    if (r.getStatus() != 204) {
+                        return done(r);
+                    }
+                    return shard.path("room/" + id).request(MediaType.APPLICATION_JSON)
+                            .header("Authorization", token).rx().get(Room.class)
+                            .thenCompose(room -> userById(room.getTenant(), token))
+                            .thenCompose(tenant -> {
+                                User user = tenant.readEntity(User.class);
+                                user.setCanBook(true);
+                                return updateUser(user, token);
+                            }).thenApply(updated -> r);
+                });
+            }));
         } catch (JWTVerificationException e) {
-            return Response.status(401).build();
+            async.resume(Response.status(401).build());
         }
     }
 
     @DELETE
     @Path("delete/room/{id}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response deleteRoom(@PathParam("id") String id, @HeaderParam("Authorization") String token,
-                               @Context UriInfo uri) {
+    public void deleteRoom(@PathParam("id") String id, @HeaderParam("Authorization") String token,
+                           @Context UriInfo uri, @Suspended AsyncResponse async) {
 
         setClient(uri);
         try {
             verifyToken(token);
-            Builder reqBuilder1 = this.client
-                    .path("room/api/room/" + id + "/delete")
-                    .request(MediaType.APPLICATION_JSON)
-                    .header("Authorization", token);
-            return reqBuilder1.delete();
+            resume(async, this.shards.owner(id, token).thenCompose(shard -> {
+                if (shard == null) {
+                    return done(Response.status(404).entity("Room not found!").type(MediaType.TEXT_PLAIN).build());
+                }
+                Builder reqBuilder1 = shard
+                        .path("room/" + id + "/delete")
+                        .request(MediaType.APPLICATION_JSON)
+                        .header("Authorization", token);
+                return reqBuilder1.rx().delete();
+            }));
         } catch (JWTVerificationException e) {
-            return Response.status(401).build();
+            async.resume(Response.status(401).build());
         }
     }
 
     @GET
     @Path("cancel/booking/{id}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response cancelBooking(@PathParam("id") String id, @HeaderParam("Authorization") String token,
-                                  @Context UriInfo uri) {
+    public void cancelBooking(@PathParam("id") String id, @HeaderParam("Authorization") String token,
+                              @Context UriInfo uri, @Suspended AsyncResponse async) {
 
         setClient(uri);
         try {
             DecodedJWT jwt = verifyToken(token);
-            Builder req = this.client
-                    .path("room/api/room/" + id + "/book/cancel")
-                    .request(MediaType.APPLICATION_JSON)
-                    .header("Authorization", token);
-            Response r = req.get();
-            if (r.getStatus() == 204) {
-                User user = getUserById(jwt.getKeyId(), token, uri).readEntity(User.class);
-                user.setCanBook(true);
-                req = this.client
-                        .path("user/api/user/update")
+            resume(async, this.shards.owner(id, token).thenCompose(shard -> {
+                if (shard == null) {
+                    return done(Response.status(400).entity("Room not found!").type(MediaType.TEXT_PLAIN).build());
+                }
+                Builder req = shard
+                        .path("room/" + id + "/book/cancel")
                         .request(MediaType.APPLICATION_JSON)
                         .header("Authorization", token);
-                req.put(Entity.entity(user, MediaType.APPLICATION_JSON));
-            }
-            return r;
+                return req.rx().get().thenCompose(r -> {
+                    if (r.getStatus() != 204) {
+                        return done(r);
+                    }
+                    return userById(jwt.getKeyId(), token).thenCompose(found -> {
+                        User user = found.readEntity(User.class);
+                        user.setCanBook(true);
+                        return updateUser(user, token);
+                    }).thenApply(updated -> r);
+                });
+            }));
         } catch (JWTVerificationException e) {
-            return Response.status(401).build();
+            async.resume(Response.status(401).build());
         }
     }
 
-    private Response getRoomsByTenantId(String id, String token, UriInfo uri) {
+    @GET
+    @Path("metrics")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getMetrics(@HeaderParam("Authorization") String token) {
 
-        setClient(uri);
         try {
-            Builder req = this.client
-                    .path("room/api/rooms/tenant/" + id)
-                    .request(MediaType.APPLICATION_JSON)
-                    .header("Authorization", token);
-            Response r = req.get();
-            if (r.getStatus() == 200) {
-                GenericType<ArrayList<Room>> ent = new GenericType<>() {};
-                List<Room> rooms = r.readEntity(ent);
-                for (Room room : rooms) {
-                    String landlord = getLandlord(room, token);
-                    String tenant = getTenant(room, token);
-                    room.setLandlord(landlord);
-                    room.setTenant(tenant);
+            if ("admin".equals(verifyToken(token).getSubject())) {
+                Map<String, Object> metrics = new LinkedHashMap<>();
+                metrics.put("httpConnectionsLeased", this.pool.leased());
+                metrics.put("httpConnectionsAvailable", this.pool.available());
+                metrics.put("httpConnectionsPending", this.pool.pending());
+                metrics.put("httpConnectionsMax", this.pool.max());
+                metrics.put("nameCacheSize", this.names.size());
+                metrics.put("nameCacheHits", this.names.hits());
+                metrics.put("nameCacheMisses", this.names.misses());
+                metrics.put("nameCacheEvictions", this.names.evictions());
+                if (this.resolver != null) {
+                    metrics.put("nameCallsInFlight", this.resolver.inFlight());
+                    metrics.put("nameCallsQueued", this.resolver.queued());
+                    metrics.put("nameCallTimeouts", this.resolver.timeouts());
                 }
-                return Response.status(200).entity(rooms).type(MediaType.APPLICATION_JSON).build();
+                return Response.status(200).entity(metrics).type(MediaType.APPLICATION_JSON).build();
             }
-            return r;
+            return Response.status(401).build();
         } catch (JWTVerificationException e) {
             return Response.status(401).build();
         }
     }
+
+    private CompletionStage<Response> getRoomsByTenantId(String id, String token, UriInfo uri) {
+
+        setClient(uri);
+        return this.shards.list(t -> t.path("rooms/tenant/" + id), token).thenCompose(found -> named(found, token));
+    }
 }
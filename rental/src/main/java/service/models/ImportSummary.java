@@ -0,0 +1,51 @@
+package service.models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ImportSummary {
+
+    private int created;
+    private int conflicts;
+    private int invalid;
+    private int failed;
+    private List<ImportResult> results;
+
+    public ImportSummary() {
+        this.results = new ArrayList<>();
+    }
+
+    public int getCreated() { return created; }
+
+    public void setCreated(int created) { this.created = created; }
+
+    public int getConflicts() { return conflicts; }
+
+    public void setConflicts(int conflicts) { this.conflicts = conflicts; }
+
+    public int getInvalid() { return invalid; }
+
+    public void setInvalid(int invalid) { this.invalid = invalid; }
+
+    // rooms in batches a shard didn't take; they may be sent again
+    public int getFailed() { return failed; }
+
+    public void setFailed(int failed) { this.failed = failed; }
+
+    public List<ImportResult> getResults() { return results; }
+
+    public void setResults(List<ImportResult> results) { this.results = results; }
+
+    public void add(ImportResult result) {
+        this.results.add(result);
+        if (result.getStatus() == 201) {
+            this.created++;
+        } else if (result.getStatus() == 409) {
+            this.conflicts++;
+        } else if (result.getStatus() == 400 || result.getStatus() == 421 || result.getStatus() == 422) {
+            this.invalid++;
+        } else {
+            this.failed++;
+        }
+    }
+}
@@ -19,7 +19,7 @@ public class Room {
     public Room(String address, String city, String landlord, int rent) {
         this.id = UUID.randomUUID().toString();
         this.address = address;
-        this.city = city;
+        this.city = Symbols.intern(city);
         this.landlord = landlord;
         this.rent = rent;
         this.status = "free";
@@ -40,7 +40,7 @@ public class Room {
 
     public String getCity() { return city; }
 
-    public void setCity(String city) { this.city = city; }
+    public void setCity(String city) { this.city = Symbols.intern(city); }
 
     public String getLandlord() {
         return landlord;
@@ -61,7 +61,7 @@ public class Room {
     }
 
     public void setStatus(String status) {
-        this.status = status;
+        this.status = Symbols.intern(status);
     }
 
     public String getTenant() {
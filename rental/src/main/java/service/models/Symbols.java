@@ -0,0 +1,24 @@
+package service.models;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+// rooms read from the room service share one String per distinct city and status. User ids and names
+// are left out: the table is never emptied and there is no bound on how many of those come by.
+public final class Symbols {
+
+    private static final ConcurrentHashMap<String, String> TABLE = new ConcurrentHashMap<>();
+
+    private Symbols() {
+    }
+
+    public static String intern(String value) {
+
+        if (value == null || value.isEmpty()) {
+            return value == null ? null : "";
+        }
+        String shared = TABLE.putIfAbsent(value, value);
+        return shared == null ? value : shared;
+    }
+
+    public static int size() { return TABLE.size(); }
+}
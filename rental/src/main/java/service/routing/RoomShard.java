@@ -0,0 +1,36 @@
+package service.routing;
+
+import javax.ws.rs.client.WebTarget;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// one partition of the room catalog: the primary takes the writes, its replicas share the reads.
+// Targets are numbered with the primary as 0 so a response can say which copy answered it.
+public final class RoomShard {
+
+    private final List<WebTarget> targets;
+    private final AtomicInteger next;
+
+    public RoomShard(WebTarget primary, List<WebTarget> replicas) {
+        this.targets = new ArrayList<>(replicas.size() + 1);
+        this.targets.add(primary);
+        this.targets.addAll(replicas);
+        this.next = new AtomicInteger();
+    }
+
+    public WebTarget primary() { return this.targets.get(0); }
+
+    public WebTarget target(int index) { return this.targets.get(index); }
+
+    public int targets() { return this.targets.size(); }
+
+    // replicas in turn, the primary when there are none
+    public int reader() {
+
+        if (this.targets.size() == 1) {
+            return 0;
+        }
+        return 1 + Math.floorMod(this.next.getAndIncrement(), this.targets.size() - 1);
+    }
+}
@@ -0,0 +1,374 @@
+package service.routing;
+
+import service.client.ConnectionPool;
+import service.models.Room;
+
+import javax.ws.rs.client.Invocation.Builder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+// the room catalog split by city over several room services. City-keyed calls go to the owning shard,
+// listings ask every shard in parallel and merge what comes back. Reads go to a replica of each shard
+// when it has some and fall back to the primary when the replica fails or says it is behind. Every call
+// hands back a future completed from the client's callbacks, so no caller waits on a shard.
+public class RoomShards {
+
+    private static final GenericType<ArrayList<Room>> ROOMS = new GenericType<>() {};
+    private static final Comparator<Room> BY_ID = Comparator.comparing(Room::getId);
+    private static final Comparator<Room> BY_RENT = Comparator.comparingInt(Room::getRent).thenComparing(Room::getId);
+
+    private final ShardRing<RoomShard> ring;
+
+    public RoomShards(ShardRing<RoomShard> ring) {
+        this.ring = ring;
+    }
+
+    public RoomShard forCity(String city) { return this.ring.shardFor(city); }
+
+    public List<RoomShard> all() { return this.ring.all(); }
+
+    public int size() { return this.ring.size(); }
+
+    // for writes: the primary holding the room, null when none of them has it
+    public CompletableFuture<WebTarget> owner(String id, String token) {
+
+        List<RoomShard> shards = this.ring.all();
+        if (shards.size() == 1) {
+            return CompletableFuture.completedFuture(shards.get(0).primary());
+        }
+        return fetch(shards, t -> t.path("room/" + id), token, new int[shards.size()], new String[shards.size()])
+                .thenApply(found -> {
+                    WebTarget owner = null;
+                    for (int i = 0; i < found.size(); i++) {
+                        if (owner == null && found.get(i).getStatus() == 200) {
+                            owner = shards.get(i).primary();
+                        }
+                        ConnectionPool.release(found.get(i));
+                    }
+                    return owner;
+                });
+    }
+
+    // for reads: the room from whichever shard has it, otherwise what the shards answered
+    public CompletableFuture<Response> find(String id, String token) {
+
+        List<RoomShard> shards = this.ring.all();
+        return fetch(shards, t -> t.path("room/" + id), token, readers(shards), new String[shards.size()])
+                .thenApply(found -> {
+                    Response failed = failure(found);
+                    if (failed != null) {
+                        return failed;
+                    }
+                    Response room = null;
+                    for (Response r : found) {
+                        if (room == null && r.getStatus() == 200) {
+                            room = r;
+                        } else {
+                            ConnectionPool.release(r);
+                        }
+                    }
+                    return room;
+                });
+    }
+
+    public CompletableFuture<Gathered> page(Function<WebTarget, WebTarget> query, int limit, boolean byRent,
+                                            String token, String ifNoneMatch) {
+        return page(this.ring.all(), query, limit, byRent, token, ifNoneMatch);
+    }
+
+    public CompletableFuture<Gathered> page(RoomShard shard, Function<WebTarget, WebTarget> query, int limit,
+                                            boolean byRent, String token, String ifNoneMatch) {
+        return page(Collections.singletonList(shard), query, limit, byRent, token, ifNoneMatch);
+    }
+
+    // one page over the shards. Each shard returns up to `limit` rooms after the same cursor; the merge
+    // keeps the first `limit` in cursor order and continues from the last of those, so rooms a shard
+    // returned past the cut come back on the next page. The tag lists, per shard, which copy answered
+    // and its tag, so a revalidation goes back to the copy that can recognise it.
+    private CompletableFuture<Gathered> page(List<RoomShard> shards, Function<WebTarget, WebTarget> query,
+                                             int limit, boolean byRent, String token, String ifNoneMatch) {
+
+        Function<WebTarget, WebTarget> limited = t -> query.apply(t).queryParam("limit", limit);
+        int[] targets = readers(shards);
+        String[] tags = new String[shards.size()];
+        conditional(ifNoneMatch, shards, targets, tags);
+        return fetch(shards, limited, token, targets, tags).thenCompose(responses -> {
+            boolean unchanged = true;
+            for (Response r : responses) {
+                unchanged &= r.getStatus() == 304;
+            }
+            if (unchanged) {
+                return CompletableFuture.completedFuture(
+                        new Gathered(Response.notModified(new EntityTag(tagValue(ifNoneMatch))).build()));
+            }
+            List<CompletableFuture<Response>> full = new ArrayList<>(responses.size());
+            for (int i = 0; i < responses.size(); i++) {
+                full.add(responses.get(i).getStatus() == 304
+                        ? call(shards.get(i).target(targets[i]), limited, token, null)
+                        : CompletableFuture.completedFuture(responses.get(i)));
+            }
+            return all(full).thenApply(settled -> merge(settled, targets, limit, byRent));
+        });
+    }
+
+    private static Gathered merge(List<Response> responses, int[] targets, int limit, boolean byRent) {
+
+        Response failed = failure(responses);
+        if (failed != null) {
+            return new Gathered(failed);
+        }
+
+        List<Room> rooms = new ArrayList<>();
+        List<String> parts = new ArrayList<>();
+        boolean more = false;
+        for (int i = 0; i < responses.size(); i++) {
+            Response r = responses.get(i);
+            EntityTag tag = r.getEntityTag();
+            parts.add(tag == null ? "-" : targets[i] + "-" + tag.getValue());
+            if (r.getStatus() == 200) {
+                more |= r.getHeaderString("X-Next-Cursor") != null;
+                rooms.addAll(r.readEntity(ROOMS));
+            } else {
+                ConnectionPool.release(r);
+            }
+        }
+        rooms.sort(byRent ? BY_RENT : BY_ID);
+        if (rooms.size() > limit) {
+            more = true;
+            rooms = new ArrayList<>(rooms.subList(0, limit));
+        }
+        String next = null;
+        if (more && !rooms.isEmpty()) {
+            Room last = rooms.get(rooms.size() - 1);
+            next = cursor(byRent ? last.getRent() + ":" + last.getId() : last.getId());
+        }
+        return new Gathered(rooms, next, new EntityTag(String.join(".", parts)));
+    }
+
+    // every shard's answer in one list ordered by id
+    public CompletableFuture<Gathered> list(Function<WebTarget, WebTarget> query, String token) {
+
+        List<RoomShard> shards = this.ring.all();
+        return fetch(shards, query, token, readers(shards), new String[shards.size()]).thenApply(responses -> {
+            Response failed = failure(responses);
+            if (failed != null) {
+                return new Gathered(failed);
+            }
+            List<Room> rooms = new ArrayList<>();
+            for (Response r : responses) {
+                if (r.getStatus() == 200) {
+                    rooms.addAll(r.readEntity(ROOMS));
+                } else {
+                    ConnectionPool.release(r);
+                }
+            }
+            rooms.sort(BY_ID);
+            return new Gathered(rooms, null, null);
+        });
+    }
+
+    // search hits taken from the shards in turn, so each shard's best matches come first
+    public CompletableFuture<Gathered> search(Function<WebTarget, WebTarget> query, int limit, String token) {
+
+        List<RoomShard> shards = this.ring.all();
+        return fetch(shards, query, token, readers(shards), new String[shards.size()]).thenApply(responses -> {
+            Response failed = failure(responses);
+            if (failed != null) {
+                return new Gathered(failed);
+            }
+            List<List<Room>> hits = new ArrayList<>();
+            for (Response r : responses) {
+                hits.add(r.getStatus() == 200 ? r.readEntity(ROOMS) : new ArrayList<>());
+            }
+            List<Room> rooms = new ArrayList<>();
+            for (int rank = 0; rooms.size() < limit; rank++) {
+                boolean any = false;
+                for (List<Room> shard : hits) {
+                    if (rank < shard.size() && rooms.size() < limit) {
+                        rooms.add(shard.get(rank));
+                        any = true;
+                    }
+                }
+                if (!any) {
+                    break;
+                }
+            }
+            return new Gathered(rooms, null, null);
+        });
+    }
+
+    private static int[] readers(List<RoomShard> shards) {
+
+        int[] targets = new int[shards.size()];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = shards.get(i).reader();
+        }
+        return targets;
+    }
+
+    // asks the chosen copy of every shard at once. A replica that fails or is behind is replaced by
+    // its primary, and `targets` is updated to say so.
+    private CompletableFuture<List<Response>> fetch(List<RoomShard> shards, Function<WebTarget, WebTarget> query,
+                                                    String token, int[] targets, String[] tags) {
+
+        List<CompletableFuture<Response>> calls = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            int shard = i;
+            calls.add(call(shards.get(i).target(targets[i]), query, token, tags[i]).handle((r, e) -> {
+                if (e != null && targets[shard] == 0) {
+                    return CompletableFuture.<Response>failedFuture(e);
+                }
+                if (e == null && (targets[shard] == 0 || r.getStatus() != 503)) {
+                    return CompletableFuture.completedFuture(r);
+                }
+                if (r != null) {
+                    ConnectionPool.release(r);
+                }
+                targets[shard] = 0;
+                return call(shards.get(shard).primary(), query, token, null);
+            }).thenCompose(Function.identity()));
+        }
+        return all(calls);
+    }
+
+    private static <T> CompletableFuture<List<T>> all(List<CompletableFuture<T>> calls) {
+
+        return CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            List<T> results = new ArrayList<>(calls.size());
+            for (CompletableFuture<T> call : calls) {
+                results.add(call.join());
+            }
+            return results;
+        });
+    }
+
+    private static CompletableFuture<Response> call(WebTarget shard, Function<WebTarget, WebTarget> query,
+                                                    String token, String tag) {
+        return request(shard, query, token, tag).rx().get().toCompletableFuture();
+    }
+
+    private static Builder request(WebTarget shard, Function<WebTarget, WebTarget> query, String token, String tag) {
+
+        Builder req = query.apply(shard)
+                .request(MediaType.APPLICATION_JSON)
+                .header("Authorization", token);
+        return tag == null ? req : req.header("If-None-Match", new EntityTag(tag).toString());
+    }
+
+    // a shard that refused or failed decides the answer; so does the first 404 when every shard had nothing
+    private static Response failure(List<Response> responses) {
+
+        Response failed = null;
+        boolean empty = true;
+        for (Response r : responses) {
+            if (r.getStatus() != 200 && r.getStatus() != 404 && failed == null) {
+                failed = r;
+            }
+            empty &= r.getStatus() == 404;
+        }
+        if (failed == null && empty) {
+            failed = responses.get(0);
+        }
+        if (failed != null) {
+            for (Response r : responses) {
+                if (r != failed) {
+                    ConnectionPool.release(r);
+                }
+            }
+        }
+        return failed;
+    }
+
+    // splits a combined tag back into the copy and tag per shard, nothing is sent when it wasn't ours
+    private static void conditional(String ifNoneMatch, List<RoomShard> shards, int[] targets, String[] tags) {
+
+        String value = tagValue(ifNoneMatch);
+        if (value == null) {
+            return;
+        }
+        String[] parts = value.split("\\.", -1);
+        if (parts.length != shards.size()) {
+            return;
+        }
+        for (int i = 0; i < parts.length; i++) {
+            int split = parts[i].indexOf('-');
+            if (split <= 0) {
+                continue;
+            }
+            try {
+                int target = Integer.parseInt(parts[i].substring(0, split));
+                if (target < shards.get(i).targets()) {
+                    targets[i] = target;
+                    tags[i] = parts[i].substring(split + 1);
+                }
+            } catch (NumberFormatException e) {
+                // not one of ours, ask without it
+            }
+        }
+    }
+
+    private static String tagValue(String header) {
+
+        if (header == null) {
+            return null;
+        }
+        String value = header.trim();
+        if (value.startsWith("W/")) {
+            value = value.substring(2);
+        }
+        if (value.length() < 2 || !value.startsWith("\"") || !value.endsWith("\"")) {
+            return null;
+        }
+        return value.substring(1, value.length() - 1);
+    }
+
+    // same encoding the room service uses for its cursors
+    private static String cursor(String key) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // either the merged rooms or the response to pass on as is
+    public static final class Gathered {
+
+        private final Response response;
+        private final List<Room> rooms;
+        private final String next;
+        private final EntityTag tag;
+
+        private Gathered(Response response) {
+            this(response, null, null, null);
+        }
+
+        private Gathered(List<Room> rooms, String next, EntityTag tag) {
+            this(null, rooms, next, tag);
+        }
+
+        private Gathered(Response response, List<Room> rooms, String next, EntityTag tag) {
+            this.response = response;
+            this.rooms = rooms;
+            this.next = next;
+            this.tag = tag;
+        }
+
+        public boolean failed() { return response != null; }
+
+        public Response getResponse() { return response; }
+
+        public List<Room> getRooms() { return rooms; }
+
+        public String getNext() { return next; }
+
+        public EntityTag getTag() { return tag; }
+    }
+}
@@ -0,0 +1,64 @@
+package service.routing;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// consistent hashing of keys onto named shards. Every shard owns VIRTUAL_NODES points on the ring, so
+// adding or removing one only moves the keys next to its points, about 1/n of them.
+public final class ShardRing<T> {
+
+    private static final int VIRTUAL_NODES = 160;
+
+    private final List<T> shards;
+    private final NavigableMap<Long, T> ring;
+
+    // the names place the shards on the ring, so they have to be the same on every router
+    public ShardRing(Map<String, T> shards) {
+
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("No shards given");
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards.values()));
+        this.ring = new TreeMap<>();
+        for (Map.Entry<String, T> shard : shards.entrySet()) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                this.ring.putIfAbsent(hash(shard.getKey() + "#" + i), shard.getValue());
+            }
+        }
+    }
+
+    public T shardFor(String key) {
+
+        if (this.shards.size() == 1) {
+            return this.shards.get(0);
+        }
+        Map.Entry<Long, T> point = this.ring.ceilingEntry(hash(key == null ? "" : key));
+        return point == null ? this.ring.firstEntry().getValue() : point.getValue();
+    }
+
+    public List<T> all() { return this.shards; }
+
+    public int size() { return this.shards.size(); }
+
+    // MD5 rather than hashCode so the placement doesn't depend on the JVM
+    private static long hash(String key) {
+
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package service.routing;
+
+import com.owlike.genson.Genson;
+import com.owlike.genson.GensonBuilder;
+import com.owlike.genson.JsonBindingException;
+import com.owlike.genson.stream.JsonStreamException;
+import service.client.ConnectionPool;
+import service.models.ImportResult;
+import service.models.ImportSummary;
+import service.models.Room;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// splits a bulk import by city and sends each shard its rooms as NDJSON batches. Results come back
+// numbered per batch and are renumbered to the position of the room in the original body. A batch a
+// shard doesn't take gives each of its rooms a failed result and the import goes on with the rest.
+public class ShardedImport {
+
+    public static final String NDJSON = "application/x-ndjson";
+
+    private static final int BATCH_SIZE = 500;
+
+    private final RoomShards shards;
+    private final String token;
+    private final Genson genson;
+    private final ImportSummary summary;
+    private final Map<WebTarget, Batch> batches;
+
+    public ShardedImport(RoomShards shards, String token) {
+        this.shards = shards;
+        this.token = token;
+        this.genson = new GensonBuilder().setSkipNull(true).create();
+        this.summary = new ImportSummary();
+        this.batches = new IdentityHashMap<>();
+    }
+
+    public Response run(InputStream in, String contentType) throws IOException {
+
+        if (contentType != null && contentType.startsWith(NDJSON)) {
+            fromNdjson(in);
+        } else {
+            fromJson(in);
+        }
+        for (Map.Entry<WebTarget, Batch> batch : this.batches.entrySet()) {
+            flush(batch.getKey(), batch.getValue());
+        }
+        this.summary.getResults().sort(Comparator.comparingInt(ImportResult::getIndex));
+        return Response.status(200).entity(this.summary).type(MediaType.APPLICATION_JSON).build();
+    }
+
+    // a JSON array can't be resynchronised after a malformed element, so the import stops there
+    private void fromJson(InputStream in) {
+
+        int index = 0;
+        try {
+            Iterator<Room> it = this.genson.deserializeValues(in, Room.class);
+            while (it.hasNext()) {
+                Room room = it.next();
+                accept(index, room, room == null ? "null" : this.genson.serialize(room));
+                index++;
+            }
+        } catch (JsonBindingException | JsonStreamException e) {
+            this.summary.add(new ImportResult(index, null, 400, "Malformed room, import stopped!"));
+        }
+    }
+
+    private void fromNdjson(InputStream in) throws IOException {
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        int index = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                accept(index, this.genson.deserialize(line, Room.class), line);
+            } catch (JsonBindingException | JsonStreamException e) {
+                this.summary.add(new ImportResult(index, null, 400, "Malformed room!"));
+            }
+            index++;
+        }
+    }
+
+    // rooms the shard will reject still go to one, so the answer matches an unsharded import
+    private void accept(int index, Room room, String json) {
+
+        WebTarget shard = this.shards.forCity(room == null ? null : room.getCity()).primary();
+        Batch batch = this.batches.computeIfAbsent(shard, s -> new Batch());
+        batch.lines.append(json).append('\n');
+        batch.positions.add(index);
+        if (batch.positions.size() == BATCH_SIZE) {
+            flush(shard, batch);
+        }
+    }
+
+    private void flush(WebTarget shard, Batch batch) {
+
+        if (batch.positions.isEmpty()) {
+            return;
+        }
+        try {
+            Response r = shard.path("rooms/import")
+                    .request(MediaType.APPLICATION_JSON)
+                    .header("Authorization", this.token)
+                    .post(Entity.entity(batch.lines.toString(), NDJSON));
+            if (r.getStatus() == 200) {
+                for (ImportResult result : r.readEntity(ImportSummary.class).getResults()) {
+                    result.setIndex(batch.positions.get(result.getIndex()));
+                    this.summary.add(result);
+                }
+            } else {
+                ConnectionPool.release(r);
+                fail(batch, r.getStatus(), "Shard refused the batch!");
+            }
+        } catch (ProcessingException e) {
+            fail(batch, 502, "Shard unreachable!");
+        }
+        batch.lines.setLength(0);
+        batch.positions.clear();
+    }
+
+    private void fail(Batch batch, int status, String message) {
+
+        for (int position : batch.positions) {
+            this.summary.add(new ImportResult(position, null, status, message));
+        }
+    }
+
+    private static final class Batch {
+
+        private final StringBuilder lines = new StringBuilder();
+        private final List<Integer> positions = new ArrayList<>(BATCH_SIZE);
+    }
+}
@@ -0,0 +1,112 @@
+package service.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NameCacheTest {
+
+    @Test
+    public void knownNamesAreHits() {
+
+        NameCache cache = new NameCache(10, 60_000, 60_000);
+        cache.put("u1", "Alice");
+
+        Map<String, String> names = new HashMap<>();
+        List<String> unknown = new ArrayList<>();
+        cache.lookup(Arrays.asList("u1", "u2"), names, unknown);
+
+        assertEquals("Alice", names.get("u1"));
+        assertEquals(Collections.singletonList("u2"), unknown);
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    public void missingUsersAreRemembered() {
+
+        NameCache cache = new NameCache(10, 60_000, 60_000);
+        cache.put("gone", null);
+
+        Map<String, String> names = new HashMap<>();
+        List<String> unknown = new ArrayList<>();
+        cache.lookup(Collections.singletonList("gone"), names, unknown);
+
+        assertTrue(names.containsKey("gone"));
+        assertNull(names.get("gone"));
+        assertTrue(unknown.isEmpty());
+    }
+
+    @Test
+    public void namesExpireAfterTheirTtl() throws InterruptedException {
+
+        NameCache cache = new NameCache(10, 50, 60_000);
+        cache.put("u1", "Alice");
+        Thread.sleep(100);
+
+        List<String> unknown = new ArrayList<>();
+        cache.lookup(Collections.singletonList("u1"), new HashMap<>(), unknown);
+
+        assertEquals(Collections.singletonList("u1"), unknown);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void missingUsersExpireSooner() throws InterruptedException {
+
+        NameCache cache = new NameCache(10, 60_000, 50);
+        cache.put("u1", "Alice");
+        cache.put("gone", null);
+        Thread.sleep(100);
+
+        Map<String, String> names = new HashMap<>();
+        List<String> unknown = new ArrayList<>();
+        cache.lookup(Arrays.asList("u1", "gone"), names, unknown);
+
+        assertEquals("Alice", names.get("u1"));
+        assertEquals(Collections.singletonList("gone"), unknown);
+    }
+
+    @Test
+    public void leastRecentlyUsedGoesFirst() {
+
+        NameCache cache = new NameCache(2, 60_000, 60_000);
+        cache.put("u1", "Alice");
+        cache.put("u2", "Bob");
+        cache.lookup(Collections.singletonList("u1"), new HashMap<>(), new ArrayList<>());
+        cache.put("u3", "Carol");
+
+        Map<String, String> names = new HashMap<>();
+        List<String> unknown = new ArrayList<>();
+        cache.lookup(Arrays.asList("u1", "u2", "u3"), names, unknown);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictions());
+        assertEquals(Collections.singletonList("u2"), unknown);
+        assertEquals("Alice", names.get("u1"));
+        assertEquals("Carol", names.get("u3"));
+    }
+
+    @Test
+    public void invalidatedNamesAreAskedForAgain() {
+
+        NameCache cache = new NameCache(10, 60_000, 60_000);
+        cache.put("u1", "Alice");
+        cache.invalidate("u1");
+        cache.invalidate(null);
+
+        List<String> unknown = new ArrayList<>();
+        cache.lookup(Collections.singletonList("u1"), new HashMap<>(), unknown);
+
+        assertEquals(Collections.singletonList("u1"), unknown);
+    }
+}
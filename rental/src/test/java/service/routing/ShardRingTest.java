@@ -0,0 +1,84 @@
+package service.routing;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ShardRingTest {
+
+    private static Map<String, String> shards(String... names) {
+
+        Map<String, String> shards = new LinkedHashMap<>();
+        for (String name : names) {
+            shards.put(name, name);
+        }
+        return shards;
+    }
+
+    @Test
+    public void placementDoesNotDependOnTheOrderOfTheShards() {
+
+        ShardRing<String> ring = new ShardRing<>(shards("http://a", "http://b", "http://c"));
+        ShardRing<String> reversed = new ShardRing<>(shards("http://c", "http://b", "http://a"));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(ring.shardFor("City " + i), reversed.shardFor("City " + i));
+        }
+    }
+
+    @Test
+    public void oneShardTakesEverything() {
+
+        ShardRing<String> ring = new ShardRing<>(shards("http://a"));
+        assertEquals("http://a", ring.shardFor("Eindhoven"));
+        assertEquals("http://a", ring.shardFor(null));
+    }
+
+    @Test
+    public void keysSpreadOverAllShards() {
+
+        ShardRing<String> ring = new ShardRing<>(shards("http://a", "http://b", "http://c", "http://d"));
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            counts.merge(ring.shardFor("City " + i), 1, Integer::sum);
+        }
+        assertEquals(4, counts.size());
+        for (int count : counts.values()) {
+            assertTrue("a shard got " + count + " of 10000 keys", count > 1500 && count < 3500);
+        }
+    }
+
+    // a new shard only takes keys, the others keep what they had
+    @Test
+    public void addingAShardOnlyMovesKeysToIt() {
+
+        ShardRing<String> before = new ShardRing<>(shards("http://a", "http://b", "http://c"));
+        ShardRing<String> after = new ShardRing<>(shards("http://a", "http://b", "http://c", "http://d"));
+        int moved = 0;
+        for (int i = 0; i < 10_000; i++) {
+            String key = "City " + i;
+            if (!before.shardFor(key).equals(after.shardFor(key))) {
+                assertEquals("http://d", after.shardFor(key));
+                moved++;
+            }
+        }
+        assertTrue("moved " + moved + " of 10000 keys", moved > 1500 && moved < 3500);
+    }
+
+    @Test
+    public void aNullKeyHasAShard() {
+
+        assertNotNull(new ShardRing<>(shards("http://a", "http://b")).shardFor(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noShardsIsRefused() {
+
+        new ShardRing<>(new HashMap<String, String>());
+    }
+}
@@ -0,0 +1,73 @@
+package service.catalog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+import service.models.Room;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// booking throughput of the catalog without the HTTP layer or the log. Each thread picks a random room
+// and books it if it is free or cancels the booking otherwise; a lost CAS is what the resource answers
+// with 409. A few rooms make every transition contended, many rooms make them mostly independent:
+//   gradle jmh -Pjmh.args='BookingBenchmark -t 4 -p rooms=16'
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BookingBenchmark {
+
+    @Param({"16", "100000"})
+    public int rooms;
+
+    @Param({RoomStorage.HEAP, RoomStorage.OFF_HEAP})
+    public String storage;
+
+    private RoomCatalog catalog;
+    private List<String> ids;
+
+    @Setup
+    public void fill() {
+
+        this.catalog = new RoomCatalog(RoomStorage.of(this.storage));
+        this.ids = new ArrayList<>(this.rooms);
+        for (int i = 0; i < this.rooms; i++) {
+            Room room = new Room("Street " + i, "City " + (i % 50), "landlord-" + (i % 1000), 300 + i % 900);
+            this.catalog.add(room);
+            this.ids.add(room.getId());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Tenant {
+
+        String name;
+
+        @Setup
+        public void name(ThreadParams thread) {
+            this.name = "tenant-" + thread.getThreadIndex();
+        }
+    }
+
+    // true when the transition won, false when another thread changed the room first
+    @Benchmark
+    public boolean transition(Tenant tenant) {
+
+        Room room = this.catalog.get(this.ids.get(ThreadLocalRandom.current().nextInt(this.ids.size())));
+        return room.state().isFree() ? this.catalog.book(room, tenant.name, 0) : this.catalog.cancelBooking(room);
+    }
+}
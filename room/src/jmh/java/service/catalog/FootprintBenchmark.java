@@ -0,0 +1,118 @@
+package service.catalog;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.runner.IterationType;
+import service.models.Room;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// what a catalog of `rooms` costs to keep. The trial fills it and reports the retained heap and off-heap
+// bytes per room and how long a full collection takes while it is live; the benchmark then keeps booking
+// and cancelling random rooms, so -prof gc shows what the collector spends on a full catalog under churn.
+// Every room gets its own copies of its strings, the way rooms read from JSON do, and every other room
+// starts booked.
+//   gradle jmh -Pjmh.args='FootprintBenchmark -prof gc -p rooms=10000000 -jvmArgsAppend -Xmx10g'
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class FootprintBenchmark {
+
+    @Param({"1000000"})
+    public int rooms;
+
+    @Param({RoomStorage.HEAP, RoomStorage.OFF_HEAP})
+    public String storage;
+
+    private RoomCatalog catalog;
+    private List<String> ids;
+    private long heapBytes;
+    private long offHeapBytes;
+    private long fullGcMillis;
+    private int measured;
+
+    @Setup(Level.Trial)
+    public void fill() {
+
+        long before = usedHeap();
+        RoomStorage storage = RoomStorage.of(this.storage);
+        this.catalog = new RoomCatalog(storage);
+        this.ids = new ArrayList<>(this.rooms);
+        for (int i = 0; i < this.rooms; i++) {
+            Room room = new Room("Street " + i, "City " + (i % 50), "landlord-" + (i % 10_000), 300 + i % 900);
+            this.catalog.add(room);
+            if (i % 2 == 0) {
+                this.catalog.book(this.catalog.get(room.getId()), "tenant-" + (i % 100_000), 0);
+            }
+            this.ids.add(room.getId());
+        }
+        long start = System.nanoTime();
+        long after = usedHeap();
+        this.fullGcMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) / 3;
+        // the ids are the catalog's own strings; only the list's references are extra
+        this.heapBytes = after - before - 4L * this.rooms;
+        this.offHeapBytes = storage.offHeapBytes();
+    }
+
+    @Setup(Level.Iteration)
+    public void count(IterationParams iteration) {
+
+        if (iteration.getType() == IterationType.MEASUREMENT) {
+            this.measured++;
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+
+        public long heapBytesPerRoom;
+        public long offHeapBytesPerRoom;
+        public long fullGcMillis;
+    }
+
+    @Benchmark
+    public boolean churn(Footprint footprint) {
+
+        // JMH clears the counters before every iteration and adds up those of all measured iterations,
+        // so only the first measured iteration reports them
+        if (this.measured == 1) {
+            footprint.heapBytesPerRoom = this.heapBytes / this.rooms;
+            footprint.offHeapBytesPerRoom = this.offHeapBytes / this.rooms;
+            footprint.fullGcMillis = this.fullGcMillis;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Room room = this.catalog.get(this.ids.get(random.nextInt(this.rooms)));
+        return room.state().isFree()
+                ? this.catalog.book(room, "tenant-" + random.nextInt(100_000), 0)
+                : this.catalog.cancelBooking(room);
+    }
+
+    // three full collections, so what is left is what is reachable; a third of the time is one of them
+    private static long usedHeap() {
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
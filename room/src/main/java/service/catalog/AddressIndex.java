@@ -0,0 +1,259 @@
+package service.catalog;
+
+import service.models.Room;
+import service.models.RoomEvent;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// type-ahead search over "address city". Terms of three or more characters are looked up by their
+// trigrams and may match anywhere in the text, shorter terms match the start of a word. Candidates
+// come from the smallest posting list, or the word index when every term is short, and are checked
+// against the other postings and the text itself.
+public class AddressIndex implements CatalogListener {
+
+    private static final int GRAM = 3;
+    private static final int SCAN_BUDGET = 1000;
+
+    private final Map<String, String> texts;
+    private final Map<String, Set<String>> grams;
+    private final NavigableMap<String, Set<String>> words;
+
+    public AddressIndex() {
+        this.texts = new ConcurrentHashMap<>();
+        this.grams = new ConcurrentHashMap<>();
+        this.words = new ConcurrentSkipListMap<>();
+    }
+
+    public void add(Room room) {
+
+        String text = normalize(room.getAddress() + " " + room.getCity());
+        if (this.texts.putIfAbsent(room.getId(), text) != null) {
+            return;
+        }
+        for (String gram : grams(text)) {
+            post(this.grams, gram, room.getId());
+        }
+        for (String word : text.split(" ")) {
+            if (!word.isEmpty()) {
+                post(this.words, word, room.getId());
+            }
+        }
+    }
+
+    public void remove(String id) {
+
+        String text = this.texts.remove(id);
+        if (text == null) {
+            return;
+        }
+        for (String gram : grams(text)) {
+            unpost(this.grams, gram, id);
+        }
+        for (String word : text.split(" ")) {
+            if (!word.isEmpty()) {
+                unpost(this.words, word, id);
+            }
+        }
+    }
+
+    @Override
+    public void published(RoomEvent event) {
+
+        if (RoomEvent.CREATED.equals(event.getType())) {
+            add(event.getRoom());
+        } else if (RoomEvent.DELETED.equals(event.getType())) {
+            remove(event.getRoom().getId());
+        }
+    }
+
+    // ids of up to `limit` matches, whole-word matches first. The scan stops as soon as it has `limit`
+    // of those, or after SCAN_BUDGET candidates, which keeps broad type-ahead prefixes cheap.
+    public List<String> search(String query, int limit) {
+
+        List<Set<String>> postings = new ArrayList<>();
+        List<String> terms = new ArrayList<>();
+        String prefix = null;
+        for (String term : normalize(query).split(" ")) {
+            if (term.isEmpty()) {
+                continue;
+            }
+            terms.add(term);
+            if (term.length() < GRAM) {
+                if (prefix == null || term.length() > prefix.length()) {
+                    prefix = term;
+                }
+                continue;
+            }
+            for (String gram : grams(term)) {
+                Set<String> ids = this.grams.get(gram);
+                if (ids == null) {
+                    return Collections.emptyList();
+                }
+                postings.add(ids);
+            }
+        }
+        if (terms.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Iterator<String> candidates;
+        if (postings.isEmpty()) {
+            // short terms only drive the lookup when there is nothing longer, otherwise they are just checked
+            candidates = prefixed(prefix);
+        } else {
+            postings.sort(Comparator.comparingInt(Set::size));
+            candidates = postings.get(0).iterator();
+        }
+
+        List<Hit> words = new ArrayList<>();
+        List<Hit> partial = new ArrayList<>();
+        for (int scanned = 0; candidates.hasNext() && words.size() < limit && scanned < SCAN_BUDGET; scanned++) {
+            String id = candidates.next();
+            if (!inAll(postings, id)) {
+                continue;
+            }
+            String text = this.texts.get(id);
+            int score = text == null ? -1 : score(text, terms);
+            if (score == terms.size()) {
+                words.add(new Hit(id, text));
+            } else if (score >= 0 && partial.size() < limit) {
+                partial.add(new Hit(id, text));
+            }
+        }
+        Comparator<Hit> shortest = Comparator.comparingInt((Hit h) -> h.text.length()).thenComparing(h -> h.id);
+        words.sort(shortest);
+        partial.sort(shortest);
+        words.addAll(partial);
+        List<String> ids = new ArrayList<>(limit);
+        for (int i = 0; i < words.size() && i < limit; i++) {
+            ids.add(words.get(i).id);
+        }
+        return ids;
+    }
+
+    // ids of every word starting with the prefix, one word at a time
+    private Iterator<String> prefixed(String prefix) {
+
+        Iterator<Set<String>> matches = this.words.subMap(prefix, true, prefix + Character.MAX_VALUE, false)
+                .values().iterator();
+        Set<String> seen = new HashSet<>();
+        return new Iterator<String>() {
+
+            private Iterator<String> current = Collections.emptyIterator();
+            private String next;
+
+            @Override
+            public boolean hasNext() {
+
+                while (this.next == null) {
+                    while (!this.current.hasNext()) {
+                        if (!matches.hasNext()) {
+                            return false;
+                        }
+                        this.current = matches.next().iterator();
+                    }
+                    String id = this.current.next();
+                    if (seen.add(id)) {
+                        this.next = id;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public String next() {
+
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String id = this.next;
+                this.next = null;
+                return id;
+            }
+        };
+    }
+
+    // compute keeps a concurrent remove from dropping the set this id is being added to
+    private static void post(Map<String, Set<String>> index, String key, String id) {
+
+        index.compute(key, (k, ids) -> {
+            Set<String> set = ids == null ? ConcurrentHashMap.newKeySet() : ids;
+            set.add(id);
+            return set;
+        });
+    }
+
+    private static void unpost(Map<String, Set<String>> index, String key, String id) {
+
+        index.computeIfPresent(key, (k, ids) -> ids.remove(id) && ids.isEmpty() ? null : ids);
+    }
+
+    private static boolean inAll(List<Set<String>> postings, String id) {
+
+        for (int i = 1; i < postings.size(); i++) {
+            if (!postings.get(i).contains(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // -1 when a term is missing, otherwise the number of terms found at the start of a word
+    private static int score(String text, List<String> terms) {
+
+        int score = 0;
+        for (String term : terms) {
+            if (text.startsWith(term) || text.contains(" " + term)) {
+                score++;
+            } else if (term.length() < GRAM || !text.contains(term)) {
+                return -1;
+            }
+        }
+        return score;
+    }
+
+    private static List<String> grams(String text) {
+
+        List<String> grams = new ArrayList<>();
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            String gram = text.substring(i, i + GRAM);
+            if (gram.indexOf(' ') < 0) {
+                grams.add(gram);
+            }
+        }
+        return grams;
+    }
+
+    // lower case, accents stripped, anything that is not a letter or digit becomes a single space
+    static String normalize(String value) {
+
+        if (value == null) {
+            return "";
+        }
+        String plain = Normalizer.normalize(value, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+        return plain.toLowerCase(Locale.ROOT).replaceAll("[^\\p{L}\\p{N}]+", " ").trim();
+    }
+
+    private static final class Hit {
+
+        private final String id;
+        private final String text;
+
+        private Hit(String id, String text) {
+            this.id = id;
+            this.text = text;
+        }
+    }
+}
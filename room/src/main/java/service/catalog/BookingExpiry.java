@@ -0,0 +1,66 @@
+package service.catalog;
+
+import service.models.Room;
+import service.models.RoomState;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// bookings that were never rented are cancelled once their deadline passes; rented or
+// cancelled bookings are left in the wheel and simply don't match when their tick comes
+public class BookingExpiry {
+
+    private static final long TICK_MILLIS = 1000;
+    private static final int WHEEL_SIZE = 512;
+
+    private final RoomCatalog rooms;
+    private final Consumer<List<Room>> listener;
+    private final TimerWheel<Booking> wheel;
+
+    public BookingExpiry(RoomCatalog rooms, Consumer<List<Room>> listener) {
+        this.rooms = rooms;
+        this.listener = listener;
+        this.wheel = new TimerWheel<>("booking-expiry", TICK_MILLIS, WHEEL_SIZE, this::expire);
+    }
+
+    public void track(Room room) {
+
+        if (room == null) {
+            return;
+        }
+        RoomState state = room.state();
+        if (state.isBooked() && state.getDeadline() > 0) {
+            this.wheel.schedule(state.getDeadline(), new Booking(room.getId(), room.revision()));
+        }
+    }
+
+    public void stop() {
+        this.wheel.stop();
+    }
+
+    private void expire(List<Booking> due) {
+
+        List<Room> expired = new ArrayList<>();
+        for (Booking booking : due) {
+            Room room = this.rooms.expire(booking.id, booking.revision);
+            if (room != null) {
+                expired.add(room);
+            }
+        }
+        if (!expired.isEmpty()) {
+            this.listener.accept(expired);
+        }
+    }
+
+    private static final class Booking {
+
+        private final String id;
+        private final long revision;
+
+        private Booking(String id, long revision) {
+            this.id = id;
+            this.revision = revision;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package service.catalog;
+
+import service.models.RoomEvent;
+
+public interface CatalogListener {
+
+    // called on the publishing thread once the change is visible to readers
+    void published(RoomEvent event);
+}
@@ -0,0 +1,191 @@
+package service.catalog;
+
+import service.models.RoomEvent;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// keeps a catalog in step with a primary by polling its change feed. Changes are applied through
+// RoomCatalog.apply, which ignores anything not newer than what a room already has, so the overlap
+// between a snapshot and the changes after it is harmless. When the primary's ring has moved past
+// our position, or the primary restarted, the replica reloads from a snapshot.
+public class CatalogReplica {
+
+    private static final int BATCH = 1000;
+
+    private final RoomCatalog rooms;
+    private final WebTarget primary;
+    private final Supplier<String> token;
+    private final long pollMillis;
+    private final AtomicLong applied;
+    private final AtomicLong resyncs;
+    private final AtomicLong errors;
+    private final Thread poller;
+    private volatile long position;
+    private volatile long head;
+    private volatile long syncedAt;
+    private volatile boolean closed;
+
+    private CatalogReplica(RoomCatalog rooms, WebTarget primary, Supplier<String> token, long pollMillis) {
+        this.rooms = rooms;
+        this.primary = primary;
+        this.token = token;
+        this.pollMillis = pollMillis;
+        this.applied = new AtomicLong();
+        this.resyncs = new AtomicLong();
+        this.errors = new AtomicLong();
+        this.position = -1;
+        this.head = -1;
+        this.poller = new Thread(this::run, "room-replica");
+        this.poller.setDaemon(true);
+    }
+
+    // `primary` is the api root of the primary room service, `token` signs requests as admin
+    public static CatalogReplica start(RoomCatalog rooms, WebTarget primary, Supplier<String> token, long pollMillis) {
+
+        CatalogReplica replica = new CatalogReplica(rooms, primary, token, pollMillis);
+        replica.poller.start();
+        return replica;
+    }
+
+    // time since the replica last had every change the primary had, -1 before the first sync
+    public long stalenessMillis() {
+
+        long synced = this.syncedAt;
+        return synced == 0 ? -1 : Math.max(0, System.currentTimeMillis() - synced);
+    }
+
+    public boolean isBehind(long maxStalenessMillis) {
+
+        long staleness = stalenessMillis();
+        return staleness < 0 || staleness > maxStalenessMillis;
+    }
+
+    // changes the primary had at its last answer that are not applied here yet
+    public long lag() {
+        return this.position < 0 || this.head < 0 ? -1 : Math.max(0, this.head - this.position);
+    }
+
+    public long position() { return this.position; }
+
+    public long applied() { return this.applied.get(); }
+
+    public long resyncs() { return this.resyncs.get(); }
+
+    public long errors() { return this.errors.get(); }
+
+    // returns once the poller has stopped, so nothing is applied to the catalog after it
+    public void close() {
+
+        this.closed = true;
+        this.poller.interrupt();
+        try {
+            this.poller.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+
+        while (!this.closed) {
+            try {
+                long asked = System.currentTimeMillis();
+                if (this.position < 0) {
+                    resync();
+                }
+                if (poll()) {
+                    this.syncedAt = asked;
+                    Thread.sleep(this.pollMillis);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | ProcessingException e) {
+                this.errors.incrementAndGet();
+                try {
+                    Thread.sleep(this.pollMillis);
+                } catch (InterruptedException stop) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // applies the next batch of changes; true once nothing newer was left on the primary
+    private boolean poll() throws IOException {
+
+        Response r = this.primary.path("rooms/replication/changes")
+                .queryParam("since", this.position)
+                .queryParam("limit", BATCH)
+                .request(ReplicationStream.MEDIA_TYPE)
+                .header("Authorization", this.token.get())
+                .get();
+        if (r.getStatus() == 410) {
+            r.close();
+            this.position = -1;
+            return false;
+        }
+        long primaryHead = head(r);
+        try (DataInputStream in = body(r)) {
+            ReplicationStream.readChanges(in, (sequence, event) -> {
+                this.rooms.apply(event);
+                this.position = sequence;
+                this.applied.incrementAndGet();
+            });
+        }
+        this.head = primaryHead;
+        return this.position >= primaryHead;
+    }
+
+    // rooms the snapshot doesn't have were deleted on the primary while we were away
+    private void resync() throws IOException {
+
+        Response r = this.primary.path("rooms/replication/snapshot")
+                .request(ReplicationStream.MEDIA_TYPE)
+                .header("Authorization", this.token.get())
+                .get();
+        long sequence = head(r);
+        Set<String> ids = new HashSet<>();
+        try (DataInputStream in = body(r)) {
+            ReplicationStream.readSnapshot(in, room -> {
+                ids.add(room.getId());
+                this.rooms.apply(new RoomEvent(RoomEvent.CREATED, room.revision(), room));
+            });
+        }
+        List<String> gone = new ArrayList<>();
+        this.rooms.forEach(room -> {
+            if (!ids.contains(room.getId())) {
+                gone.add(room.getId());
+            }
+        });
+        gone.forEach(this.rooms::remove);
+        this.resyncs.incrementAndGet();
+        this.head = sequence;
+        this.position = sequence;
+    }
+
+    private static long head(Response r) throws IOException {
+
+        String sequence = r.getHeaderString(ReplicationStream.SEQUENCE);
+        if (r.getStatus() != 200 || sequence == null) {
+            r.close();
+            throw new IOException("Primary answered " + r.getStatus());
+        }
+        return Long.parseLong(sequence);
+    }
+
+    private static DataInputStream body(Response r) {
+        return new DataInputStream(new BufferedInputStream(r.readEntity(InputStream.class), 1 << 16));
+    }
+}
@@ -0,0 +1,116 @@
+package service.catalog;
+
+import service.models.Room;
+import service.models.RoomEvent;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// point-in-time image of the catalog: [magic][max revision][count] followed by (revision, room) records
+final class CatalogSnapshot {
+
+    private static final int MAGIC = 0x524f4f4d;
+    private static final int HEADER = 16;
+
+    private CatalogSnapshot() {
+    }
+
+    // writes next to the target and renames over it, so a crash leaves either the old or the new snapshot
+    static int write(Path path, RoomCatalog rooms) throws IOException {
+
+        Path next = path.resolveSibling(path.getFileName() + ".tmp");
+        long[] maxRevision = new long[1];
+        int[] count = new int[1];
+        try (FileChannel out = FileChannel.open(next, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            out.position(HEADER);
+            DataOutputStream stream = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(out), 1 << 16));
+            try {
+                rooms.forEach(room -> {
+                    try {
+                        stream.writeLong(room.revision());
+                        RoomCodec.writeRoom(stream, room);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    maxRevision[0] = Math.max(maxRevision[0], room.revision());
+                    count[0]++;
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            stream.flush();
+            maxRevision[0] = Math.max(maxRevision[0], rooms.revision());
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC).putLong(maxRevision[0]).putInt(count[0]).flip();
+            out.write(header, 0);
+            out.force(true);
+        }
+        Files.move(next, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count[0];
+    }
+
+    // maps the snapshot instead of reading it through the heap; returns the number of rooms loaded
+    static int load(Path path, RoomCatalog rooms) throws IOException {
+
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (in.size() < HEADER) {
+                throw new IOException("Truncated room snapshot " + path);
+            }
+            MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a room snapshot " + path);
+            }
+            rooms.advanceRevision(buffer.getLong());
+            int count = buffer.getInt();
+            DataInputStream data = new DataInputStream(new BufferInput(buffer));
+            for (int i = 0; i < count; i++) {
+                long revision = data.readLong();
+                Room room = RoomCodec.readRoom(data, revision);
+                rooms.apply(new RoomEvent(RoomEvent.CREATED, revision, room));
+            }
+            return count;
+        }
+    }
+
+    private static final class BufferInput extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private BufferInput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return this.buffer.hasRemaining() ? this.buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+
+            if (!this.buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(length, this.buffer.remaining());
+            this.buffer.get(bytes, offset, n);
+            return n;
+        }
+    }
+}
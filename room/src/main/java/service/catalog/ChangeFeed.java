@@ -0,0 +1,234 @@
+package service.catalog;
+
+import service.models.RoomEvent;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+// sequenced stream of catalog events. The last `capacity` changes stay in a ring so a subscriber can
+// resume after a sequence number; each subscriber drains its own bounded queue with one send in flight
+// and is dropped when it falls further behind than that, it can then reconnect and resume. Catalog
+// writers only put their event in an inbox; one sender at a time numbers what has arrived and hands it
+// on, so a write never waits on the feed.
+public class ChangeFeed implements CatalogListener {
+
+    private final Change[] ring;
+    private final int queueSize;
+    private final long first;
+    private final List<Subscription> subscriptions;
+    private final ExecutorService senders;
+    private final Queue<RoomEvent> inbox;
+    private final AtomicBoolean dispatching;
+    private long sequence;
+
+    public ChangeFeed(int capacity, int queueSize) {
+        this.ring = new Change[capacity];
+        this.queueSize = queueSize;
+        // sequences start at the boot time so ids handed out before a restart fall outside the ring
+        this.sequence = System.currentTimeMillis() << 10;
+        this.first = this.sequence + 1;
+        this.subscriptions = new CopyOnWriteArrayList<>();
+        this.inbox = new ConcurrentLinkedQueue<>();
+        this.dispatching = new AtomicBoolean();
+        this.senders = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "room-feed");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void published(RoomEvent event) {
+
+        this.inbox.add(event);
+        if (this.dispatching.compareAndSet(false, true)) {
+            try {
+                this.senders.execute(this::dispatch);
+            } catch (RejectedExecutionException e) {
+                // closed
+            }
+        }
+    }
+
+    // a change is numbered only after the catalog applied it, so whatever a reader saw up to a sequence
+    // is in the catalog; an event still in the inbox gets a later number and is sent again at worst
+    private void dispatch() {
+
+        while (true) {
+            RoomEvent event;
+            while ((event = this.inbox.poll()) != null) {
+                synchronized (this) {
+                    Change change = new Change(++this.sequence, event);
+                    this.ring[(int) (change.sequence % this.ring.length)] = change;
+                    for (Subscription subscription : this.subscriptions) {
+                        subscription.offer(change);
+                    }
+                }
+            }
+            this.dispatching.set(false);
+            if (this.inbox.isEmpty() || !this.dispatching.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    // ends every subscription; their sinks are closed before the senders stop
+    public void close() {
+
+        for (Subscription subscription : this.subscriptions) {
+            synchronized (subscription) {
+                subscription.close();
+            }
+        }
+        this.senders.shutdown();
+    }
+
+    public int subscribers() { return this.subscriptions.size(); }
+
+    public synchronized long sequence() { return this.sequence; }
+
+    // up to `limit` changes after `since`, null when the ring no longer holds all of them
+    public synchronized List<Change> after(long since, int limit) {
+
+        long oldest = Math.max(this.first, this.sequence - this.ring.length + 1);
+        if (since < oldest - 1 || since > this.sequence) {
+            return null;
+        }
+        List<Change> changes = new ArrayList<>((int) Math.min(limit, this.sequence - since));
+        for (long s = since + 1; s <= this.sequence && changes.size() < limit; s++) {
+            changes.add(this.ring[(int) (s % this.ring.length)]);
+        }
+        return changes;
+    }
+
+    // replays what the ring still holds after `since` before following live changes; when those are
+    // gone the subscriber gets a reset change telling it to reload and continue from its sequence
+    public void subscribe(Long since, Function<Change, CompletionStage<?>> send, Runnable close) {
+
+        Subscription subscription = new Subscription(send, close);
+        synchronized (this) {
+            if (since != null && since != this.sequence) {
+                long oldest = Math.max(this.first, this.sequence - this.ring.length + 1);
+                if (since < oldest - 1 || since > this.sequence) {
+                    subscription.replay(new Change(this.sequence, null));
+                } else {
+                    for (long s = since + 1; s <= this.sequence; s++) {
+                        subscription.replay(this.ring[(int) (s % this.ring.length)]);
+                    }
+                }
+            }
+            this.subscriptions.add(subscription);
+        }
+        subscription.start();
+    }
+
+    public static final class Change {
+
+        private final long sequence;
+        private final RoomEvent event;
+
+        private Change(long sequence, RoomEvent event) {
+            this.sequence = sequence;
+            this.event = event;
+        }
+
+        public long getSequence() { return sequence; }
+
+        // null for a reset
+        public RoomEvent getEvent() { return event; }
+    }
+
+    private final class Subscription {
+
+        private final Function<Change, CompletionStage<?>> send;
+        private final Runnable close;
+        private final ArrayDeque<Change> queue;
+        private int limit;
+        private boolean sending;
+        private boolean closed;
+
+        private Subscription(Function<Change, CompletionStage<?>> send, Runnable close) {
+            this.send = send;
+            this.close = close;
+            this.queue = new ArrayDeque<>();
+            this.limit = queueSize;
+        }
+
+        // replayed changes do not count against the live backlog
+        private void replay(Change change) {
+
+            this.queue.add(change);
+            this.limit++;
+        }
+
+        private synchronized void start() {
+
+            if (!this.queue.isEmpty() && !this.sending) {
+                this.sending = true;
+                senders.execute(this::drain);
+            }
+        }
+
+        private synchronized void offer(Change change) {
+
+            if (this.closed) {
+                return;
+            }
+            if (this.queue.size() >= this.limit) {
+                close();
+                return;
+            }
+            this.queue.add(change);
+            if (!this.sending) {
+                this.sending = true;
+                senders.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+
+            while (true) {
+                Change next;
+                synchronized (this) {
+                    next = this.closed ? null : this.queue.poll();
+                    if (next == null) {
+                        this.sending = false;
+                        return;
+                    }
+                    if (this.queue.size() < queueSize) {
+                        this.limit = queueSize;
+                    }
+                }
+                try {
+                    this.send.apply(next).toCompletableFuture().join();
+                } catch (RuntimeException e) {
+                    synchronized (this) {
+                        close();
+                    }
+                    return;
+                }
+            }
+        }
+
+        private void close() {
+
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            this.queue.clear();
+            subscriptions.remove(this);
+            senders.execute(this.close);
+        }
+    }
+}
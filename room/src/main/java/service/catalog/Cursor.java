@@ -0,0 +1,30 @@
+package service.catalog;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+public final class Cursor {
+
+    private Cursor() {
+    }
+
+    public static String encode(String key) {
+
+        if (key == null) {
+            return null;
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String decode(String token) {
+
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        try {
+            return new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor!", e);
+        }
+    }
+}
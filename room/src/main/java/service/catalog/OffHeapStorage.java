@@ -0,0 +1,290 @@
+package service.catalog;
+
+import service.models.Room;
+import service.models.RoomState;
+import service.models.RoomStatus;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// fixed-width room records in direct buffers with addresses in a string arena; city, landlord and
+// tenant are stored as symbol numbers. The heap keeps one small slot per room holding the id the
+// indexes already share, and a Room is only built when somebody reads it. The revision word doubles
+// as a seqlock: writers swap it for WRITING, update the state fields and release the new revision,
+// readers retry until they see the same revision on both sides of their reads.
+final class OffHeapStorage extends RoomStorage {
+
+    private static final int RECORD = 48;
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_RECORDS = 1 << CHUNK_BITS;
+    private static final int MAX_CHUNKS = 1 << 14;
+
+    private static final int REVISION = 0;
+    private static final int DEADLINE = 8;
+    private static final int ADDRESS = 16;
+    private static final int RENT = 24;
+    private static final int CITY = 28;
+    private static final int LANDLORD = 32;
+    private static final int TENANT = 36;
+    private static final int STATUS = 40;
+
+    private static final long WRITING = -1;
+    private static final long REMOVED = Long.MIN_VALUE;
+    private static final RoomStatus[] STATUSES = RoomStatus.values();
+    private static final VarHandle WORD = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final AtomicReferenceArray<ByteBuffer> chunks;
+    private final AtomicInteger records;
+    private final AtomicLong allocated;
+    private final StringArena strings;
+    private final SymbolTable symbols;
+
+    OffHeapStorage() {
+        this.chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+        this.records = new AtomicInteger();
+        this.allocated = new AtomicLong();
+        this.strings = new StringArena(this.allocated);
+        this.symbols = new SymbolTable();
+    }
+
+    @Override
+    public String name() { return OFF_HEAP; }
+
+    @Override
+    public long offHeapBytes() { return this.allocated.get(); }
+
+    // records of removed rooms are not reused, a restart from the snapshot packs them again
+    @Override
+    RoomSlot slot(Room room) {
+
+        int record = this.records.getAndIncrement();
+        ByteBuffer chunk = chunk(record >>> CHUNK_BITS);
+        int base = (record & (CHUNK_RECORDS - 1)) * RECORD;
+        chunk.putLong(base + ADDRESS, this.strings.add(room.getAddress()));
+        chunk.putInt(base + RENT, room.getRent());
+        chunk.putInt(base + CITY, this.symbols.replace(-1, room.getCity()));
+        chunk.putInt(base + LANDLORD, this.symbols.replace(-1, room.getLandlord()));
+        chunk.putInt(base + TENANT, -1);
+        writeState(chunk, base, room.state());
+        WORD.setRelease(chunk, base + REVISION, room.revision());
+        return new Slot(room.getId(), chunk, base);
+    }
+
+    private ByteBuffer chunk(int index) {
+
+        if (index >= MAX_CHUNKS) {
+            throw new IllegalStateException("Off-heap room storage is full");
+        }
+        ByteBuffer chunk = this.chunks.get(index);
+        if (chunk == null) {
+            ByteBuffer fresh = ByteBuffer.allocateDirect(CHUNK_RECORDS * RECORD).order(ByteOrder.nativeOrder());
+            if (this.chunks.compareAndSet(index, null, fresh)) {
+                this.allocated.addAndGet(fresh.capacity());
+            }
+            chunk = this.chunks.get(index);
+        }
+        return chunk;
+    }
+
+    // only called by the writer holding the record, so the tenant it replaces can't change underneath it
+    private void writeState(ByteBuffer chunk, int base, RoomState state) {
+
+        chunk.putInt(base + STATUS, state.getStatus().ordinal());
+        chunk.putInt(base + TENANT, this.symbols.replace(chunk.getInt(base + TENANT), state.getTenant()));
+        chunk.putLong(base + DEADLINE, state.getDeadline());
+    }
+
+    private final class Slot implements RoomSlot {
+
+        private final String id;
+        private final ByteBuffer chunk;
+        private final int base;
+
+        private Slot(String id, ByteBuffer chunk, int base) {
+            this.id = id;
+            this.chunk = chunk;
+            this.base = base;
+        }
+
+        @Override
+        public Room get() {
+
+            while (true) {
+                long revision = (long) WORD.getAcquire(this.chunk, this.base + REVISION);
+                if (revision == REMOVED) {
+                    return null;
+                }
+                if (revision == WRITING) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                // symbols are looked up before the revision is checked again: a number released and
+                // reused in between comes with a new revision
+                int status = this.chunk.getInt(this.base + STATUS);
+                String tenant = symbols.name(this.chunk.getInt(this.base + TENANT));
+                long deadline = this.chunk.getLong(this.base + DEADLINE);
+                String city = symbols.name(this.chunk.getInt(this.base + CITY));
+                String landlord = symbols.name(this.chunk.getInt(this.base + LANDLORD));
+                VarHandle.loadLoadFence();
+                if ((long) WORD.getVolatile(this.chunk, this.base + REVISION) != revision) {
+                    continue;
+                }
+                Room room = new Room(this.id, strings.get(this.chunk.getLong(this.base + ADDRESS)), city, landlord,
+                        this.chunk.getInt(this.base + RENT));
+                return room.withState(RoomState.of(STATUSES[status], tenant, deadline), revision);
+            }
+        }
+
+        // revisions are unique per room, so matching the stored revision is matching the expected version
+        @Override
+        public boolean compareAndSet(Room expected, Room next) {
+
+            if (expected == null
+                    || !WORD.compareAndSet(this.chunk, this.base + REVISION, expected.revision(), WRITING)) {
+                return false;
+            }
+            writeState(this.chunk, this.base, next.state());
+            WORD.setRelease(this.chunk, this.base + REVISION, next.revision());
+            return true;
+        }
+
+        @Override
+        public Room clear() {
+
+            while (true) {
+                Room room = get();
+                if (room == null) {
+                    return null;
+                }
+                if (WORD.compareAndSet(this.chunk, this.base + REVISION, room.revision(), REMOVED)) {
+                    symbols.replace(this.chunk.getInt(this.base + CITY), null);
+                    symbols.replace(this.chunk.getInt(this.base + LANDLORD), null);
+                    symbols.replace(this.chunk.getInt(this.base + TENANT), null);
+                    return room;
+                }
+            }
+        }
+    }
+
+    // append-only UTF-8 strings; a reference is the chunk number in the high half and the offset in the low half
+    private static final class StringArena {
+
+        private static final int CHUNK = 1 << 20;
+        private static final int MAX_CHUNKS = 1 << 16;
+
+        private final AtomicReferenceArray<ByteBuffer> chunks;
+        private final AtomicLong allocated;
+        private ByteBuffer current;
+        private int index;
+
+        private StringArena(AtomicLong allocated) {
+            this.chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+            this.allocated = allocated;
+            this.index = -1;
+        }
+
+        private synchronized long add(String value) {
+
+            if (value == null) {
+                return -1;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (this.current == null || this.current.remaining() < 4 + bytes.length) {
+                if (this.index + 1 >= MAX_CHUNKS) {
+                    throw new IllegalStateException("Off-heap room storage is full");
+                }
+                this.current = ByteBuffer.allocateDirect(Math.max(CHUNK, 4 + bytes.length));
+                this.allocated.addAndGet(this.current.capacity());
+                this.chunks.set(++this.index, this.current);
+            }
+            int offset = this.current.position();
+            this.current.putInt(bytes.length).put(bytes);
+            return ((long) this.index << 32) | offset;
+        }
+
+        private String get(long reference) {
+
+            if (reference < 0) {
+                return null;
+            }
+            ByteBuffer chunk = this.chunks.get((int) (reference >>> 32)).duplicate();
+            int offset = (int) reference;
+            byte[] bytes = new byte[chunk.getInt(offset)];
+            chunk.position(offset + 4);
+            chunk.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    // numbers the cities, landlords and tenants of the stored rooms so a record only holds an int for each.
+    // Every record holding a number counts once; a number nobody holds is forgotten and handed out again,
+    // so tenants and landlords who are gone don't stay behind.
+    private static final class SymbolTable {
+
+        private final Map<String, Integer> ids;
+        private volatile String[] names;
+        private int[] counts;
+        private int[] free;
+        private int freed;
+        private int size;
+
+        private SymbolTable() {
+            this.ids = new HashMap<>();
+            this.names = new String[64];
+            this.counts = new int[64];
+            this.free = new int[64];
+        }
+
+        // takes a number for `name` and lets go of `previous`, -1 when there is none; null and empty
+        // names are -1
+        private synchronized int replace(int previous, String name) {
+
+            int id = -1;
+            if (name != null && !name.isEmpty()) {
+                Integer known = this.ids.get(name);
+                id = known != null ? known : add(name);
+                this.counts[id]++;
+            }
+            if (previous >= 0 && --this.counts[previous] == 0) {
+                this.ids.remove(this.names[previous]);
+                this.names[previous] = null;
+                if (this.freed == this.free.length) {
+                    this.free = Arrays.copyOf(this.free, this.freed * 2);
+                }
+                this.free[this.freed++] = previous;
+            }
+            return id;
+        }
+
+        private int add(String name) {
+
+            int id;
+            if (this.freed > 0) {
+                id = this.free[--this.freed];
+            } else {
+                if (this.size == this.counts.length) {
+                    this.names = Arrays.copyOf(this.names, this.size * 2);
+                    this.counts = Arrays.copyOf(this.counts, this.size * 2);
+                }
+                id = this.size++;
+            }
+            this.names[id] = name;
+            this.ids.put(name, id);
+            return id;
+        }
+
+        // readers don't lock; one that reads a number while it is being reused sees a new revision after
+        private String name(int id) {
+            return id < 0 ? null : this.names[id];
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package service.catalog;
+
+import service.models.Room;
+
+import java.util.List;
+
+public class Page {
+
+    private final List<Room> rooms;
+    private final String next;
+
+    public Page(List<Room> rooms, String next) {
+        this.rooms = rooms;
+        this.next = next;
+    }
+
+    public List<Room> getRooms() { return rooms; }
+
+    public String getNext() { return next; }
+
+    public boolean isEmpty() { return rooms.isEmpty(); }
+}
@@ -0,0 +1,77 @@
+package service.catalog;
+
+import service.models.Room;
+import service.models.RoomEvent;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+// what a primary ships to its replicas, in the codec of the log. Changes are [1][sequence][event]
+// records, a snapshot is [1][revision][room] records; both end with a 0 so a cut-off body is noticed.
+public final class ReplicationStream {
+
+    public static final String MEDIA_TYPE = "application/x-room-replication";
+    // the primary's newest change when it answered; a snapshot contains everything up to it
+    public static final String SEQUENCE = "X-Feed-Sequence";
+
+    private ReplicationStream() {
+    }
+
+    public static void writeChanges(OutputStream out, List<ChangeFeed.Change> changes) throws IOException {
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        for (ChangeFeed.Change change : changes) {
+            data.writeByte(1);
+            data.writeLong(change.getSequence());
+            RoomCodec.write(data, change.getEvent());
+        }
+        data.writeByte(0);
+        data.flush();
+    }
+
+    public static void writeSnapshot(OutputStream out, RoomCatalog rooms) throws IOException {
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        try {
+            rooms.forEach(room -> {
+                try {
+                    data.writeByte(1);
+                    data.writeLong(room.revision());
+                    RoomCodec.writeRoom(data, room);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        data.writeByte(0);
+        data.flush();
+    }
+
+    interface ChangeReader {
+        void accept(long sequence, RoomEvent event);
+    }
+
+    static void readChanges(DataInput in, ChangeReader reader) throws IOException {
+
+        while (in.readByte() == 1) {
+            long sequence = in.readLong();
+            reader.accept(sequence, RoomCodec.read(in));
+        }
+    }
+
+    static void readSnapshot(DataInput in, Consumer<Room> reader) throws IOException {
+
+        while (in.readByte() == 1) {
+            long revision = in.readLong();
+            reader.accept(RoomCodec.readRoom(in, revision));
+        }
+    }
+}
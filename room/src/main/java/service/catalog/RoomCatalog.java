@@ -0,0 +1,704 @@
+package service.catalog;
+
+import service.models.CityStats;
+import service.models.Room;
+import service.models.RoomEvent;
+import service.models.RoomState;
+import service.models.RoomStatus;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+public class RoomCatalog {
+
+    // a tombstone only has to outlive the events a delete can overtake in the log or the change feed,
+    // which are the transitions that lost the race with it
+    private static final long TOMBSTONE_MILLIS = 60_000;
+    private static final int MAX_TOMBSTONES = 100_000;
+
+    private final RoomStorage storage;
+    private final Map<String, RoomSlot> rooms;
+    private final NavigableSet<String> ids;
+    private final Map<String, RoomState> indexed;
+    private final Map<String, String> addresses;
+    private final Map<String, NavigableSet<String>> cities;
+    private final Map<String, NavigableSet<String>> landlords;
+    private final Map<String, NavigableSet<String>> tenants;
+    private final Map<RoomStatus, NavigableSet<String>> statuses;
+    private final NavigableSet<RentKey> rents;
+    private final Map<String, NavigableSet<RentKey>> cityRents;
+    private final Map<RoomStatus, NavigableSet<RentKey>> statusRents;
+    private final Map<String, AtomicReference<CityStats>> stats;
+    private final AtomicLong version;
+    private final AtomicLong freeVersion;
+    private final AtomicLong revisions;
+    private final Map<String, Long> tombstones;
+    private final Queue<Tombstone> tombstoneOrder;
+    private final AtomicInteger tombstoneCount;
+    private final List<CatalogListener> listeners;
+
+    public RoomCatalog() {
+        this(RoomStorage.heap());
+    }
+
+    public RoomCatalog(RoomStorage storage) {
+        this.storage = storage;
+        this.rooms = new ConcurrentHashMap<>();
+        this.ids = new ConcurrentSkipListSet<>();
+        this.indexed = new ConcurrentHashMap<>();
+        this.addresses = new ConcurrentHashMap<>();
+        this.cities = new ConcurrentHashMap<>();
+        this.landlords = new ConcurrentHashMap<>();
+        this.tenants = new ConcurrentHashMap<>();
+        this.statuses = new EnumMap<>(RoomStatus.class);
+        for (RoomStatus status : RoomStatus.values()) {
+            this.statuses.put(status, new ConcurrentSkipListSet<>());
+        }
+        this.rents = new ConcurrentSkipListSet<>();
+        this.cityRents = new ConcurrentHashMap<>();
+        this.statusRents = new EnumMap<>(RoomStatus.class);
+        for (RoomStatus status : RoomStatus.values()) {
+            this.statusRents.put(status, new ConcurrentSkipListSet<>());
+        }
+        this.stats = new ConcurrentHashMap<>();
+        this.version = new AtomicLong();
+        this.freeVersion = new AtomicLong();
+        this.revisions = new AtomicLong();
+        this.tombstones = new ConcurrentHashMap<>();
+        this.tombstoneOrder = new ConcurrentLinkedQueue<>();
+        this.tombstoneCount = new AtomicInteger();
+        this.listeners = new CopyOnWriteArrayList<>();
+    }
+
+    public RoomStorage storage() { return this.storage; }
+
+    public void addListener(CatalogListener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void forEach(Consumer<Room> action) {
+
+        for (RoomSlot slot : this.rooms.values()) {
+            Room room = slot.get();
+            if (room != null) {
+                action.accept(room);
+            }
+        }
+    }
+
+    public Room get(String id) {
+
+        if (id == null) {
+            return null;
+        }
+        RoomSlot slot = this.rooms.get(id);
+        return slot == null ? null : slot.get();
+    }
+
+    public Room getByAddress(String address) {
+
+        if (address == null) {
+            return null;
+        }
+        return get(this.addresses.get(address));
+    }
+
+    public int size() { return this.rooms.size(); }
+
+    // bumped after every published change, so a reader that saw version v has seen every change up to v
+    public long version() { return this.version.get(); }
+
+    // moves only when a room enters or leaves the free set
+    public long freeVersion() { return this.freeVersion.get(); }
+
+    // the highest revision handed out or replayed so far
+    long revision() { return this.revisions.get(); }
+
+    // a snapshot remembers the highest revision, deletes included, so new ones continue above it
+    void advanceRevision(long revision) {
+
+        this.revisions.accumulateAndGet(revision, Math::max);
+    }
+
+    public List<Room> byLandlord(String landlord) { return lookup(this.landlords, landlord, null, null); }
+
+    public List<Room> byTenant(String tenant) { return lookup(this.tenants, tenant, null, tenant); }
+
+    public Page all(String after, int limit) { return page(this.ids, after, limit, null); }
+
+    public Page byCity(String city, String after, int limit) {
+        return page(city == null ? null : this.cities.get(city), after, limit, null);
+    }
+
+    public Page byLandlord(String landlord, String after, int limit) {
+        return page(landlord == null ? null : this.landlords.get(landlord), after, limit, null);
+    }
+
+    public Page byStatus(RoomStatus status, String after, int limit) {
+        return page(this.statuses.get(status), after, limit, status);
+    }
+
+    // one entry per city, min and max rent come from the city's rent index
+    public List<CityStats> stats() {
+
+        List<CityStats> result = new ArrayList<>(this.stats.size());
+        for (AtomicReference<CityStats> city : this.stats.values()) {
+            CityStats current = city.get();
+            if (current.getRooms() == 0) {
+                continue;
+            }
+            NavigableSet<RentKey> rents = this.cityRents.get(current.getCity());
+            RentKey min = rents == null ? null : rents.ceiling(new RentKey(Integer.MIN_VALUE, ""));
+            RentKey max = rents == null ? null : rents.floor(new RentKey(Integer.MAX_VALUE, null));
+            result.add(current.withRange(min == null ? 0 : min.rent, max == null ? 0 : max.rent));
+        }
+        result.sort(Comparator.comparing(CityStats::getCity));
+        return result;
+    }
+
+    public Page byRent(String city, RoomStatus status, Integer minRent, Integer maxRent, String after, int limit) {
+
+        // a city's rooms are few enough to filter by status, over all cities the status has its own index
+        NavigableSet<RentKey> keys = city != null ? this.cityRents.get(city)
+                : status != null ? this.statusRents.get(status) : this.rents;
+        if (keys == null) {
+            return new Page(new ArrayList<>(), null);
+        }
+        int min = minRent == null ? Integer.MIN_VALUE : minRent;
+        int max = maxRent == null ? Integer.MAX_VALUE : maxRent;
+        if (min > max) {
+            return new Page(new ArrayList<>(), null);
+        }
+        RentKey from = after == null ? new RentKey(min, "") : RentKey.parse(after);
+        boolean inclusive = after == null;
+        if (from.compareTo(new RentKey(min, "")) < 0) {
+            from = new RentKey(min, "");
+            inclusive = true;
+        }
+        RentKey to = new RentKey(max, null);
+        if (from.compareTo(to) > 0) {
+            return new Page(new ArrayList<>(), null);
+        }
+        NavigableSet<RentKey> range = keys.subSet(from, inclusive, to, false);
+        List<Room> result = new ArrayList<>(Math.min(limit, 64));
+        RentKey last = null;
+        for (RentKey key : range) {
+            Room room = resolve(key.id, status, null);
+            if (room == null) {
+                continue;
+            }
+            if (result.size() == limit) {
+                return new Page(result, last.toString());
+            }
+            result.add(room);
+            last = key;
+        }
+        return new Page(result, null);
+    }
+
+    public boolean add(Room room) {
+
+        Room added = insert(room, this.revisions.incrementAndGet());
+        if (added == null) {
+            return false;
+        }
+        this.version.incrementAndGet();
+        emit(RoomEvent.CREATED, added);
+        return true;
+    }
+
+    // inserts a whole batch and publishes it as one catalog version
+    public boolean[] addAll(List<Room> batch) {
+
+        boolean[] added = new boolean[batch.size()];
+        List<Room> inserted = new ArrayList<>(batch.size());
+        for (int i = 0; i < added.length; i++) {
+            Room room = insert(batch.get(i), this.revisions.incrementAndGet());
+            added[i] = room != null;
+            if (room != null) {
+                inserted.add(room);
+            }
+        }
+        if (!inserted.isEmpty()) {
+            this.version.incrementAndGet();
+        }
+        for (Room room : inserted) {
+            emit(RoomEvent.CREATED, room);
+        }
+        return added;
+    }
+
+    private Room insert(Room candidate, long revision) {
+
+        Room room = candidate.withState(candidate.state(), revision);
+        if (this.addresses.putIfAbsent(room.getAddress(), room.getId()) != null) {
+            return null;
+        }
+        // the storage slot is only allocated once the id is ours, an off-heap record is never given back
+        RoomSlot[] created = new RoomSlot[1];
+        RoomSlot slot = this.rooms.computeIfAbsent(room.getId(), id -> created[0] = this.storage.slot(room));
+        if (slot != created[0]) {
+            this.addresses.remove(room.getAddress(), room.getId());
+            return null;
+        }
+        synchronized (slot) {
+            Room current = slot.get();
+            if (current != null) {
+                this.ids.add(current.getId());
+                RentKey rent = new RentKey(current.getRent(), current.getId());
+                this.rents.add(rent);
+                indexRent(current.getCity(), rent);
+                this.statusRents.get(current.state().getStatus()).add(rent);
+                index(this.cities, current.getCity(), current.getId());
+                index(this.landlords, current.getLandlord(), current.getId());
+                index(this.tenants, current.getTenant(), current.getId());
+                this.statuses.get(current.state().getStatus()).add(current.getId());
+                this.indexed.put(current.getId(), current.state());
+                count(current, null, current.state().getStatus());
+            }
+        }
+        return room;
+    }
+
+    public Room remove(String id) {
+
+        return remove(id, 0);
+    }
+
+    // a revision of 0 takes the next one once the slot is cleared: a transition that landed before the
+    // clear has a lower revision than the delete, so replaying the log cannot bring the room back
+    private Room remove(String id, long revision) {
+
+        RoomSlot slot = id == null ? null : this.rooms.get(id);
+        if (slot == null) {
+            return null;
+        }
+        Room room;
+        long deleted;
+        // the id stays mapped until the indexes are clean, so a room re-added under the same id
+        // cannot have its index entries removed by this call
+        synchronized (slot) {
+            room = slot.clear();
+            if (room == null) {
+                return null;
+            }
+            deleted = revision > 0 ? revision : Math.max(this.revisions.incrementAndGet(), room.revision() + 1);
+            this.addresses.remove(room.getAddress(), id);
+            this.ids.remove(id);
+            RentKey rent = new RentKey(room.getRent(), id);
+            this.rents.remove(rent);
+            unindexRent(room.getCity(), rent);
+            RoomState last = this.indexed.remove(id);
+            unindex(this.cities, room.getCity(), id);
+            unindex(this.landlords, room.getLandlord(), id);
+            if (last != null) {
+                unindex(this.tenants, last.getTenant(), id);
+                this.statuses.get(last.getStatus()).remove(id);
+                this.statusRents.get(last.getStatus()).remove(rent);
+                count(room, last.getStatus(), null);
+            }
+            this.rooms.remove(id, slot);
+        }
+        this.version.incrementAndGet();
+        this.listeners.forEach(listener -> listener.published(new RoomEvent(RoomEvent.DELETED, deleted, room)));
+        return room;
+    }
+
+    public List<Room> removeByLandlord(String landlord) {
+
+        List<Room> removed = new ArrayList<>();
+        for (Room room : byLandlord(landlord)) {
+            if (remove(room.getId()) != null) {
+                removed.add(room);
+            }
+        }
+        return removed;
+    }
+
+    public Map<String, Integer> removeByLandlords(Collection<String> landlords) {
+
+        Map<String, Integer> removed = new LinkedHashMap<>();
+        for (String landlord : landlords) {
+            removed.put(landlord, removeByLandlord(landlord).size());
+        }
+        return removed;
+    }
+
+    // the transition only succeeds if the room is still at the version the caller read
+    public boolean book(Room room, String tenant, long deadline) {
+
+        return publish(room, room.state().book(tenant, deadline));
+    }
+
+    public boolean cancelBooking(Room room) {
+
+        return publish(room, room.state().cancel());
+    }
+
+    public boolean rent(Room room) {
+
+        return publish(room, room.state().rent());
+    }
+
+    // cancels the booking only if the room is still at the revision that booked it; off-heap slots
+    // build a new state on every read, so the revision is what identifies the booking
+    public Room expire(String id, long revision) {
+
+        Room room = get(id);
+        if (room == null || room.revision() != revision || !room.state().isBooked()
+                || !publish(room, room.state().cancel())) {
+            return null;
+        }
+        return room;
+    }
+
+    public List<Room> cancelByTenant(String tenant) {
+
+        List<Room> cancelled = new ArrayList<>();
+        for (Room room : byTenant(tenant)) {
+            while (room != null && room.getTenant().equals(tenant)) {
+                if (cancelBooking(room)) {
+                    cancelled.add(room);
+                    break;
+                }
+                room = get(room.getId());
+            }
+        }
+        return cancelled;
+    }
+
+    public Map<String, Integer> cancelByTenants(Collection<String> tenants) {
+
+        Map<String, Integer> cancelled = new LinkedHashMap<>();
+        for (String tenant : tenants) {
+            cancelled.put(tenant, cancelByTenant(tenant).size());
+        }
+        return cancelled;
+    }
+
+    // replays an event from the write-ahead log; versions older than what the catalog holds are ignored
+    public void apply(RoomEvent event) {
+
+        Room room = event.getRoom();
+        long revision = event.getRevision();
+        this.revisions.accumulateAndGet(revision, Math::max);
+        Long deleted = this.tombstones.get(room.getId());
+        if (deleted != null && deleted >= revision) {
+            return;
+        }
+        if (RoomEvent.DELETED.equals(event.getType())) {
+            tombstone(room.getId(), revision);
+            Room current = get(room.getId());
+            if (current != null && current.revision() < revision) {
+                remove(room.getId(), revision);
+            }
+            return;
+        }
+        while (true) {
+            RoomSlot slot = this.rooms.get(room.getId());
+            Room current = slot == null ? null : slot.get();
+            if (current == null) {
+                Room added = insert(room, revision);
+                if (added != null) {
+                    this.version.incrementAndGet();
+                    emit(event.getType(), added);
+                    return;
+                }
+                if (get(room.getId()) == null) {
+                    return;
+                }
+                continue;
+            }
+            if (current.revision() >= revision) {
+                return;
+            }
+            Room next = current.withState(room.state(), revision);
+            if (slot.compareAndSet(current, next)) {
+                reindex(slot);
+                this.version.incrementAndGet();
+                emit(event.getType(), next);
+                return;
+            }
+        }
+    }
+
+    public void clearTombstones() {
+
+        this.tombstones.clear();
+        this.tombstoneOrder.clear();
+        this.tombstoneCount.set(0);
+    }
+
+    public int tombstones() { return this.tombstones.size(); }
+
+    // oldest first out once they are older than TOMBSTONE_MILLIS or there are too many of them
+    private void tombstone(String id, long revision) {
+
+        long now = System.currentTimeMillis();
+        this.tombstones.put(id, revision);
+        this.tombstoneOrder.add(new Tombstone(id, revision, now));
+        this.tombstoneCount.incrementAndGet();
+        Tombstone oldest;
+        while ((oldest = this.tombstoneOrder.peek()) != null
+                && (oldest.at < now - TOMBSTONE_MILLIS || this.tombstoneCount.get() > MAX_TOMBSTONES)) {
+            if (this.tombstoneOrder.remove(oldest)) {
+                this.tombstoneCount.decrementAndGet();
+                this.tombstones.remove(oldest.id, oldest.revision);
+            }
+        }
+    }
+
+    // published rooms are never mutated; a transition swaps in a new version with a CAS on the room's slot
+    private boolean publish(Room expected, RoomState next) {
+
+        if (next == null) {
+            return false;
+        }
+        RoomSlot slot = this.rooms.get(expected.getId());
+        Room published = expected.withState(next, this.revisions.incrementAndGet());
+        if (slot == null || !slot.compareAndSet(expected, published)) {
+            return false;
+        }
+        reindex(slot);
+        this.version.incrementAndGet();
+        emit(next.isFree() ? RoomEvent.CANCELLED
+                : next.isBooked() ? RoomEvent.BOOKED : RoomEvent.RENTED, published);
+        return true;
+    }
+
+    private void emit(String type, Room room) {
+
+        if (this.listeners.isEmpty()) {
+            return;
+        }
+        RoomEvent event = new RoomEvent(type, room.revision(), room);
+        for (CatalogListener listener : this.listeners) {
+            listener.published(event);
+        }
+    }
+
+    // the slot monitor only orders index updates, the CAS has already picked the winner
+    private void reindex(RoomSlot slot) {
+
+        synchronized (slot) {
+            Room room = slot.get();
+            if (room == null) {
+                return;
+            }
+            RoomState previous = this.indexed.get(room.getId());
+            RoomState current = room.state();
+            if (previous == null || previous == current) {
+                return;
+            }
+            if (!previous.getStatus().equals(current.getStatus())) {
+                this.statuses.get(previous.getStatus()).remove(room.getId());
+                this.statuses.get(current.getStatus()).add(room.getId());
+                RentKey rent = new RentKey(room.getRent(), room.getId());
+                this.statusRents.get(previous.getStatus()).remove(rent);
+                this.statusRents.get(current.getStatus()).add(rent);
+                count(room, previous.getStatus(), current.getStatus());
+            }
+            if (!previous.getTenant().equals(current.getTenant())) {
+                unindex(this.tenants, previous.getTenant(), room.getId());
+                index(this.tenants, current.getTenant(), room.getId());
+            }
+            this.indexed.put(room.getId(), current);
+        }
+    }
+
+    // runs under the slot monitor next to the status index, so each room is counted once per transition
+    private void count(Room room, RoomStatus from, RoomStatus to) {
+
+        if (from == RoomStatus.FREE || to == RoomStatus.FREE) {
+            this.freeVersion.incrementAndGet();
+        }
+        if (room.getCity() == null) {
+            return;
+        }
+        AtomicReference<CityStats> city = this.stats.computeIfAbsent(room.getCity(),
+                c -> new AtomicReference<>(CityStats.empty(c)));
+        CityStats current;
+        do {
+            current = city.get();
+        } while (!city.compareAndSet(current, current.move(from, to, room.getRent())));
+    }
+
+    private List<Room> lookup(Map<String, NavigableSet<String>> index, String key, RoomStatus status, String tenant) {
+
+        if (key == null) {
+            return Collections.emptyList();
+        }
+        NavigableSet<String> ids = index.get(key);
+        if (ids == null) {
+            return Collections.emptyList();
+        }
+        List<Room> result = new ArrayList<>();
+        for (String id : ids) {
+            Room room = resolve(id, status, tenant);
+            if (room != null) {
+                result.add(room);
+            }
+        }
+        return result;
+    }
+
+    // walks the id-ordered set from the cursor and stops after limit + 1 matches
+    private Page page(NavigableSet<String> ids, String after, int limit, RoomStatus status) {
+
+        List<Room> result = new ArrayList<>(Math.min(limit, 64));
+        if (ids == null) {
+            return new Page(result, null);
+        }
+        String last = null;
+        for (String id : after == null ? ids : ids.tailSet(after, false)) {
+            Room room = resolve(id, status, null);
+            if (room == null) {
+                continue;
+            }
+            if (result.size() == limit) {
+                return new Page(result, last);
+            }
+            result.add(room);
+            last = id;
+        }
+        return new Page(result, null);
+    }
+
+    private Room resolve(String id, RoomStatus status, String tenant) {
+
+        Room room = get(id);
+        if (room == null) {
+            return null;
+        }
+        if (status != null && status != room.state().getStatus()) {
+            return null;
+        }
+        if (tenant != null && !tenant.equals(room.getTenant())) {
+            return null;
+        }
+        return room;
+    }
+
+    private static void index(Map<String, NavigableSet<String>> index, String key, String id) {
+
+        if (key == null || key.isEmpty()) {
+            return;
+        }
+        index.compute(key, (k, ids) -> {
+            NavigableSet<String> set = ids == null ? new ConcurrentSkipListSet<>() : ids;
+            set.add(id);
+            return set;
+        });
+    }
+
+    private static void unindex(Map<String, NavigableSet<String>> index, String key, String id) {
+
+        if (key == null || key.isEmpty()) {
+            return;
+        }
+        index.computeIfPresent(key, (k, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    private void indexRent(String city, RentKey rent) {
+
+        if (city == null || city.isEmpty()) {
+            return;
+        }
+        this.cityRents.compute(city, (k, keys) -> {
+            NavigableSet<RentKey> set = keys == null ? new ConcurrentSkipListSet<>() : keys;
+            set.add(rent);
+            return set;
+        });
+    }
+
+    private void unindexRent(String city, RentKey rent) {
+
+        if (city == null || city.isEmpty()) {
+            return;
+        }
+        this.cityRents.computeIfPresent(city, (k, keys) -> {
+            keys.remove(rent);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    private static final class Tombstone {
+
+        private final String id;
+        private final Long revision;
+        private final long at;
+
+        private Tombstone(String id, long revision, long at) {
+            this.id = id;
+            this.revision = revision;
+            this.at = at;
+        }
+    }
+
+    // orders by rent, then id; a null id sorts after every id with the same rent
+    private static final class RentKey implements Comparable<RentKey> {
+
+        private final int rent;
+        private final String id;
+
+        private RentKey(int rent, String id) {
+            this.rent = rent;
+            this.id = id;
+        }
+
+        private static RentKey parse(String key) {
+            int split = key.indexOf(':');
+            if (split < 0) {
+                throw new IllegalArgumentException("Invalid cursor!");
+            }
+            return new RentKey(Integer.parseInt(key.substring(0, split)), key.substring(split + 1));
+        }
+
+        @Override
+        public int compareTo(RentKey o) {
+            int c = Integer.compare(this.rent, o.rent);
+            if (c != 0) {
+                return c;
+            }
+            if (this.id == null) {
+                return o.id == null ? 0 : 1;
+            }
+            if (o.id == null) {
+                return -1;
+            }
+            return this.id.compareTo(o.id);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            return compareTo((RentKey) o) == 0;
+        }
+
+        @Override
+        public int hashCode() { return 31 * rent + (id == null ? 0 : id.hashCode()); }
+
+        @Override
+        public String toString() { return rent + ":" + id; }
+    }
+}
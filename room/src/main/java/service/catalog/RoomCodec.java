@@ -0,0 +1,110 @@
+package service.catalog;
+
+import service.models.Room;
+import service.models.RoomEvent;
+import service.models.RoomState;
+import service.models.RoomStatus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+// binary form of a room event, framed as [length][crc32][payload] on disk
+final class RoomCodec {
+
+    private static final String[] TYPES = {
+            RoomEvent.CREATED, RoomEvent.BOOKED, RoomEvent.CANCELLED, RoomEvent.RENTED, RoomEvent.DELETED
+    };
+
+    private RoomCodec() {
+    }
+
+    static ByteBuffer frame(RoomEvent event) {
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            write(out, event);
+            out.flush();
+            byte[] payload = bytes.toByteArray();
+            ByteBuffer frame = ByteBuffer.allocate(8 + payload.length);
+            frame.putInt(payload.length).putInt(checksum(payload, payload.length)).put(payload).flip();
+            return frame;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static int checksum(byte[] payload, int length) {
+
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, length);
+        return (int) crc.getValue();
+    }
+
+    static void write(DataOutput out, RoomEvent event) throws IOException {
+
+        out.writeByte(typeCode(event.getType()));
+        out.writeLong(event.getRevision());
+        writeRoom(out, event.getRoom());
+    }
+
+    static RoomEvent read(DataInput in) throws IOException {
+
+        int type = in.readByte();
+        if (type < 0 || type >= TYPES.length) {
+            throw new IOException("Unknown event type " + type);
+        }
+        long revision = in.readLong();
+        return new RoomEvent(TYPES[type], revision, readRoom(in, revision));
+    }
+
+    static void writeRoom(DataOutput out, Room room) throws IOException {
+
+        RoomState state = room.state();
+        writeString(out, room.getId());
+        writeString(out, room.getAddress());
+        writeString(out, room.getCity());
+        writeString(out, room.getLandlord());
+        out.writeInt(room.getRent());
+        out.writeByte(state.getStatus().ordinal());
+        writeString(out, state.getTenant());
+        out.writeLong(state.getDeadline());
+    }
+
+    static Room readRoom(DataInput in, long revision) throws IOException {
+
+        Room room = new Room(readString(in), readString(in), readString(in), readString(in), in.readInt());
+        RoomStatus status = RoomStatus.values()[in.readByte()];
+        RoomState state = RoomState.of(status, readString(in), in.readLong());
+        return room.withState(state, revision);
+    }
+
+    private static int typeCode(String type) {
+
+        for (int i = 0; i < TYPES.length; i++) {
+            if (TYPES[i].equals(type)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown event type " + type);
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
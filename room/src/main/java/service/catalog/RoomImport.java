@@ -0,0 +1,126 @@
+package service.catalog;
+
+import com.owlike.genson.Genson;
+import com.owlike.genson.JsonBindingException;
+import com.owlike.genson.stream.JsonStreamException;
+import service.models.ImportResult;
+import service.models.ImportSummary;
+import service.models.Room;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+public class RoomImport {
+
+    public static final String NDJSON = "application/x-ndjson";
+
+    private static final int BATCH_SIZE = 500;
+
+    private final RoomCatalog rooms;
+    private final Genson genson;
+    private final String landlord;
+    private final Predicate<String> owned;
+    private final ImportSummary summary;
+    private final List<Room> batch;
+    private final List<Integer> positions;
+
+    // rooms in cities `owned` rejects belong to another shard
+    public RoomImport(RoomCatalog rooms, String landlord, Predicate<String> owned) {
+        this.rooms = rooms;
+        this.genson = new Genson();
+        this.landlord = landlord;
+        this.owned = owned;
+        this.summary = new ImportSummary();
+        this.batch = new ArrayList<>(BATCH_SIZE);
+        this.positions = new ArrayList<>(BATCH_SIZE);
+    }
+
+    // a JSON array can't be resynchronised after a malformed element, so the import stops there
+    public ImportSummary fromJson(InputStream in) {
+
+        int index = 0;
+        try {
+            Iterator<Room> it = this.genson.deserializeValues(in, Room.class);
+            while (it.hasNext()) {
+                accept(index, it.next());
+                index++;
+            }
+        } catch (JsonBindingException | JsonStreamException e) {
+            this.summary.add(new ImportResult(index, null, 400, "Malformed room, import stopped!"));
+        }
+        flush();
+        return this.summary;
+    }
+
+    public ImportSummary fromNdjson(InputStream in) throws IOException {
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        int index = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                accept(index, this.genson.deserialize(line, Room.class));
+            } catch (JsonBindingException | JsonStreamException e) {
+                this.summary.add(new ImportResult(index, null, 400, "Malformed room!"));
+            }
+            index++;
+        }
+        flush();
+        return this.summary;
+    }
+
+    private void accept(int index, Room room) {
+
+        if (room == null || isBlank(room.getAddress()) || isBlank(room.getCity()) || room.getRent() < 0) {
+            this.summary.add(new ImportResult(index, room == null ? null : room.getId(), 422, "Invalid room!"));
+            return;
+        }
+        if (!this.owned.test(room.getCity())) {
+            this.summary.add(new ImportResult(index, room.getId(), 421, "City belongs to another shard!"));
+            return;
+        }
+        if (isBlank(room.getId())) {
+            room.setId(UUID.randomUUID().toString());
+        }
+        if (isBlank(room.getLandlord())) {
+            room.setLandlord(this.landlord);
+        }
+        this.batch.add(room);
+        this.positions.add(index);
+        if (this.batch.size() == BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    private void flush() {
+
+        if (this.batch.isEmpty()) {
+            return;
+        }
+        boolean[] added = this.rooms.addAll(this.batch);
+        for (int i = 0; i < added.length; i++) {
+            Room room = this.batch.get(i);
+            this.summary.add(added[i]
+                    ? new ImportResult(this.positions.get(i), room.getId(), 201, "Room posted!")
+                    : new ImportResult(this.positions.get(i), room.getId(), 409,
+                            "Room with that address is already posted!"));
+        }
+        this.batch.clear();
+        this.positions.clear();
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
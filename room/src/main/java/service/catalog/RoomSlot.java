@@ -0,0 +1,14 @@
+package service.catalog;
+
+import service.models.Room;
+
+// holds the current version of one room; a transition only lands if the slot still holds the expected version
+interface RoomSlot {
+
+    Room get();
+
+    boolean compareAndSet(Room expected, Room next);
+
+    // empties the slot and returns what it held, null if it was already empty
+    Room clear();
+}
@@ -0,0 +1,55 @@
+package service.catalog;
+
+import service.models.Room;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+// decides where the catalog keeps room versions: as objects on the heap, or as records in direct buffers
+public abstract class RoomStorage {
+
+    public static final String HEAP = "heap";
+    public static final String OFF_HEAP = "offheap";
+
+    abstract RoomSlot slot(Room room);
+
+    public abstract String name();
+
+    // bytes held outside the Java heap
+    public long offHeapBytes() { return 0; }
+
+    public static RoomStorage heap() { return new Heap(); }
+
+    public static RoomStorage offHeap() { return new OffHeapStorage(); }
+
+    public static RoomStorage of(String mode) {
+
+        if (HEAP.equals(mode)) {
+            return heap();
+        }
+        if (OFF_HEAP.equals(mode)) {
+            return offHeap();
+        }
+        throw new IllegalArgumentException("Unknown storage mode " + mode);
+    }
+
+    private static final class Heap extends RoomStorage {
+
+        @Override
+        RoomSlot slot(Room room) { return new HeapSlot(room); }
+
+        @Override
+        public String name() { return HEAP; }
+    }
+
+    private static final class HeapSlot extends AtomicReference<Room> implements RoomSlot {
+
+        private static final long serialVersionUID = 1L;
+
+        private HeapSlot(Room room) {
+            super(room);
+        }
+
+        @Override
+        public Room clear() { return getAndSet(null); }
+    }
+}
@@ -0,0 +1,106 @@
+package service.catalog;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// hashed timer wheel: scheduling is O(1), and each tick only looks at the entries hashed into one slot.
+// A slot's lock orders an entry added to it against the tick that drains it.
+public class TimerWheel<T> {
+
+    private final long tickMillis;
+    private final long start;
+    private final List<Queue<Entry<T>>> slots;
+    private final Consumer<List<T>> handler;
+    private final ScheduledExecutorService ticker;
+    private volatile long current;
+
+    public TimerWheel(String name, long tickMillis, int size, Consumer<List<T>> handler) {
+        this.tickMillis = tickMillis;
+        this.start = System.currentTimeMillis();
+        this.slots = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            this.slots.add(new ArrayDeque<>());
+        }
+        this.handler = handler;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.ticker.scheduleAtFixedRate(this::advance, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // an entry whose tick was drained while it was being added moves on to the next tick instead of
+    // waiting a whole turn of the wheel
+    public void schedule(long deadline, T payload) {
+
+        long due = (deadline - this.start + this.tickMillis - 1) / this.tickMillis;
+        while (true) {
+            long tick = Math.max(due, this.current + 1);
+            Queue<Entry<T>> slot = this.slots.get((int) (tick % this.slots.size()));
+            synchronized (slot) {
+                if (tick > this.current) {
+                    slot.add(new Entry<>(tick, payload));
+                    return;
+                }
+            }
+        }
+    }
+
+    // returns once a tick that was running has finished
+    public void stop() {
+
+        this.ticker.shutdownNow();
+        try {
+            this.ticker.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void advance() {
+
+        long target = (System.currentTimeMillis() - this.start) / this.tickMillis;
+        while (this.current < target) {
+            long tick = this.current + 1;
+            Queue<Entry<T>> slot = this.slots.get((int) (tick % this.slots.size()));
+            List<T> due = new ArrayList<>();
+            synchronized (slot) {
+                this.current = tick;
+                Iterator<Entry<T>> it = slot.iterator();
+                while (it.hasNext()) {
+                    Entry<T> entry = it.next();
+                    if (entry.tick <= tick) {
+                        due.add(entry.payload);
+                        it.remove();
+                    }
+                }
+            }
+            if (!due.isEmpty()) {
+                try {
+                    this.handler.accept(due);
+                } catch (RuntimeException e) {
+                    // a failing handler must not cancel the ticker
+                }
+            }
+        }
+    }
+
+    private static final class Entry<T> {
+
+        private final long tick;
+        private final T payload;
+
+        private Entry(long tick, T payload) {
+            this.tick = tick;
+            this.payload = payload;
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package service.catalog;
+
+import service.models.RoomEvent;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// append-only log of catalog events; one flusher thread writes whatever has queued up
+// and fsyncs it once, so concurrent writers share a single force per batch. Compaction moves
+// the log aside and starts a new one, the snapshot is written on a thread of its own so the
+// flusher keeps committing while it runs.
+public class WriteAheadLog implements CatalogListener {
+
+    private static final int MAX_BATCH = 1024;
+    private static final Record CLOSE = new Record(0, null);
+    private static final long SNAPSHOT_RETRY_MILLIS = 10_000;
+
+    private final Path path;
+    private final Path previous;
+    private final Path snapshot;
+    private final RoomCatalog rooms;
+    private final long compactBytes;
+    private final long snapshotMillis;
+    private final BlockingQueue<Record> pending;
+    private final Object durableLock;
+    private final Thread flusher;
+    private final ScheduledThreadPoolExecutor snapshotter;
+    private volatile FileChannel channel;
+    private volatile boolean compacting;
+    private long lastSnapshot;
+    private long appended;
+    private long durable;
+    private volatile IOException failure;
+    private volatile boolean closed;
+    private volatile boolean stopped;
+    private volatile long startupMillis;
+    private volatile int snapshotRooms;
+    private volatile int replayedRecords;
+    private volatile long snapshotsWritten;
+    private volatile long snapshotFailures;
+
+    private WriteAheadLog(Path path, Path snapshot, RoomCatalog rooms, long compactBytes, long snapshotMillis)
+            throws IOException {
+        this.path = path;
+        this.previous = path.resolveSibling(path.getFileName() + ".prev");
+        this.snapshot = snapshot;
+        this.rooms = rooms;
+        this.compactBytes = compactBytes;
+        this.snapshotMillis = snapshotMillis;
+        this.pending = new LinkedBlockingQueue<>();
+        this.durableLock = new Object();
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.flusher = new Thread(this::flush, "room-wal");
+        this.flusher.setDaemon(true);
+        this.snapshotter = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "room-wal-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // a retry still waiting at close is left to the next start, which replays the moved log
+        this.snapshotter.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    // loads the snapshot and replays the log written after it, then logs every change the catalog
+    // publishes from here on; the log is folded into a new snapshot when it passes compactBytes
+    // or snapshotMillis have gone by
+    public static WriteAheadLog open(Path path, Path snapshot, RoomCatalog rooms, long compactBytes,
+                                     long snapshotMillis) throws IOException {
+
+        long start = System.nanoTime();
+        WriteAheadLog log = new WriteAheadLog(path, snapshot, rooms, compactBytes, snapshotMillis);
+        log.snapshotRooms = CatalogSnapshot.load(snapshot, rooms);
+        log.replayPrevious();
+        log.replay();
+        log.startupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.lastSnapshot = System.currentTimeMillis();
+        rooms.addListener(log);
+        log.flusher.start();
+        return log;
+    }
+
+    @Override
+    public void published(RoomEvent event) {
+
+        ByteBuffer frame = RoomCodec.frame(event);
+        synchronized (this) {
+            this.pending.add(new Record(++this.appended, frame));
+        }
+    }
+
+    // blocks until every event published before the call is on disk
+    public void sync() {
+
+        long target;
+        synchronized (this) {
+            target = this.appended;
+        }
+        synchronized (this.durableLock) {
+            while (this.durable < target && this.failure == null && !this.stopped) {
+                try {
+                    this.durableLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the room log", e);
+                }
+            }
+        }
+        if (this.failure != null) {
+            throw new UncheckedIOException("Room log is not writable", this.failure);
+        }
+        if (this.stopped && this.durable < target) {
+            throw new IllegalStateException("Room log is closed");
+        }
+    }
+
+    public long startupMillis() { return startupMillis; }
+
+    public int snapshotRooms() { return snapshotRooms; }
+
+    public int replayedRecords() { return replayedRecords; }
+
+    public long snapshotsWritten() { return snapshotsWritten; }
+
+    public long snapshotFailures() { return snapshotFailures; }
+
+    // false once a write or fsync failed or the log was closed; nothing published after that is logged
+    public boolean isWritable() { return this.failure == null && !this.stopped; }
+
+    public String failure() {
+
+        IOException failure = this.failure;
+        return failure == null ? null : failure.toString();
+    }
+
+    public long size() {
+
+        try {
+            return this.channel.size();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    // writes what is still queued and waits for a running snapshot, so nothing of this log touches the
+    // files any more once it returns; another instance may open them right after
+    public void close() {
+
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.pending.add(CLOSE);
+        try {
+            this.flusher.join();
+            this.snapshotter.shutdown();
+            this.snapshotter.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            // everything written was forced already
+        }
+    }
+
+    // a log moved aside for a snapshot that didn't get written before a crash; it was forced before
+    // the move, so it is whole, and its records are older than any in the current log
+    private void replayPrevious() throws IOException {
+
+        if (!Files.exists(this.previous)) {
+            return;
+        }
+        try (FileChannel old = FileChannel.open(this.previous, StandardOpenOption.READ)) {
+            this.replayedRecords += replay(old);
+        }
+        this.compacting = true;
+        this.snapshotter.execute(this::writeSnapshot);
+    }
+
+    private void replay() throws IOException {
+
+        this.replayedRecords += replay(this.channel);
+        this.rooms.clearTombstones();
+    }
+
+    private int replay(FileChannel channel) throws IOException {
+
+        long position = 0;
+        int records = 0;
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(8);
+        while (position + 8 <= size) {
+            header.clear();
+            channel.read(header, position);
+            header.flip();
+            int length = header.getInt();
+            int crc = header.getInt();
+            if (length <= 0 || position + 8 + length > size) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            channel.read(ByteBuffer.wrap(payload), position + 8);
+            if (RoomCodec.checksum(payload, length) != crc) {
+                break;
+            }
+            this.rooms.apply(RoomCodec.read(new DataInputStream(new ByteArrayInputStream(payload))));
+            position += 8 + length;
+            records++;
+        }
+        // anything past the last intact record is a torn write from a crash
+        if (channel == this.channel) {
+            channel.truncate(position);
+            channel.position(position);
+        }
+        return records;
+    }
+
+    private void flush() {
+
+        try {
+            flushBatches();
+        } finally {
+            synchronized (this.durableLock) {
+                this.stopped = true;
+                this.durableLock.notifyAll();
+            }
+        }
+    }
+
+    private void flushBatches() {
+
+        List<Record> batch = new ArrayList<>(MAX_BATCH);
+        while (this.failure == null) {
+            try {
+                Record first = this.pending.poll(this.snapshotMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (this.channel.size() > 0) {
+                        snapshot();
+                    }
+                    continue;
+                }
+                batch.add(first);
+                this.pending.drainTo(batch, MAX_BATCH - 1);
+                boolean closing = batch.remove(CLOSE);
+                if (!batch.isEmpty()) {
+                    write(batch);
+                }
+                batch.clear();
+                if (closing) {
+                    return;
+                }
+                if (this.channel.size() > this.compactBytes
+                        || System.currentTimeMillis() - this.lastSnapshot >= this.snapshotMillis) {
+                    snapshot();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+        }
+    }
+
+    private void write(List<Record> batch) throws IOException {
+
+        ByteBuffer[] frames = new ByteBuffer[batch.size()];
+        long remaining = 0;
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = batch.get(i).frame;
+            remaining += frames[i].remaining();
+        }
+        while (remaining > 0) {
+            remaining -= this.channel.write(frames);
+        }
+        this.channel.force(false);
+        synchronized (this.durableLock) {
+            this.durable = batch.get(batch.size() - 1).sequence;
+            this.durableLock.notifyAll();
+        }
+    }
+
+    private void fail(IOException e) {
+
+        synchronized (this.durableLock) {
+            this.failure = e;
+            this.durableLock.notifyAll();
+        }
+    }
+
+    // every record in the moved log was applied to the catalog before the flusher wrote it, so a
+    // snapshot started after the move covers it and it can be deleted. The snapshot may also hold
+    // changes logged in the new file; replay keeps whichever version of a room has the higher revision.
+    // While one snapshot is still being written the log just keeps growing.
+    private void snapshot() throws IOException {
+
+        if (this.compacting) {
+            return;
+        }
+        this.channel.force(true);
+        this.channel.close();
+        Files.move(this.path, this.previous, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.lastSnapshot = System.currentTimeMillis();
+        this.compacting = true;
+        this.snapshotter.execute(this::writeSnapshot);
+    }
+
+    // a failed snapshot is retried; the moved log stays until one is written, so the log itself is
+    // still complete and keeps taking writes meanwhile
+    private void writeSnapshot() {
+
+        try {
+            CatalogSnapshot.write(this.snapshot, this.rooms);
+            Files.delete(this.previous);
+            this.snapshotsWritten++;
+            this.compacting = false;
+        } catch (IOException e) {
+            this.snapshotFailures++;
+            try {
+                this.snapshotter.schedule(this::writeSnapshot, SNAPSHOT_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException closing) {
+                // closed meanwhile, the next start replays the moved log
+            }
+        }
+    }
+
+    private static final class Record {
+
+        private final long sequence;
+        private final ByteBuffer frame;
+
+        private Record(long sequence, ByteBuffer frame) {
+            this.sequence = sequence;
+            this.frame = frame;
+        }
+    }
+}
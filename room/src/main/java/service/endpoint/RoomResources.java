@@ -6,32 +6,209 @@ import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.exceptions.JWTDecodeException;
 import com.auth0.jwt.exceptions.JWTVerificationException;
 import com.auth0.jwt.interfaces.DecodedJWT;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import service.catalog.AddressIndex;
+import service.catalog.BookingExpiry;
+import service.catalog.CatalogReplica;
+import service.catalog.ChangeFeed;
+import service.catalog.Cursor;
+import service.catalog.Page;
+import service.catalog.ReplicationStream;
+import service.catalog.RoomCatalog;
+import service.catalog.RoomImport;
+import service.catalog.RoomStorage;
+import service.catalog.WriteAheadLog;
+import service.config.Settings;
+import service.models.ImportSummary;
 import service.models.Room;
+import service.models.RoomEvent;
+import service.models.RoomStatus;
+import service.routing.ShardRing;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Singleton;
 import javax.ws.rs.*;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Configuration;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Providers;
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
 
 @Singleton
 @Path("/")
 public class RoomResources {
 
-    private List<Room> rooms;
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 1000;
+    private static final int SEARCH_LIMIT = 10;
+    private static final int MAX_SEARCH_LIMIT = 50;
+
+    private RoomCatalog rooms;
+    private WriteAheadLog log;
+    private ChangeFeed feed;
+    private AddressIndex addresses;
+    private Predicate<String> owned;
+    private volatile FreePage freePage;
+    private BookingExpiry expiry;
+    private CatalogReplica replica;
+    private long maxStaleness;
+    private long bookingTtl;
+    private String epoch;
+    private Client client;
+    private WebTarget users;
+    private Algorithm algorithm;
     private JWTVerifier verifier;
 
-    public RoomResources() {
-        rooms = new ArrayList<>();
-        this.verifier = JWT.require(Algorithm.HMAC256("rest_sot_assignment")).build();
-        rooms.add(new Room("d7947ed9-9e39-49ec-9930-4a6a24c46105","Drijffhoutstraat 27", "Eindhoven", "7f8365a9-2409-4bee-ac92-b874eeacf159", 400));
-        rooms.add(new Room("ff26d1d1-3ce5-4694-b564-6eb7ec391090","Anjeliersstraat 118", "Amsterdam", "7f8365a9-2409-4bee-ac92-b874eeacf159", 750));
-        rooms.add(new Room("b085ba9a-d4c1-4575-a579-d90378910642","Paul Citroenstraat 13", "Utrecht", "b26c04c2-cd5b-4337-a6ed-cb7bcfe790a5", 600));
-        rooms.add(new Room("22122569-a73d-437a-8b84-af3b22532c23","Jan van Goyenstraat 28", "Eindhoven", "b26c04c2-cd5b-4337-a6ed-cb7bcfe790a5", 500));
-        rooms.add(new Room("5b9f33c7-cb90-46e3-b420-3bed4795ba54","Pijlstaartvlinder 22", "Utrecht", "5ab557a7-98bd-45a9-b6ba-7a8173fd64c3", 850));
-        rooms.add(new Room("de8ba56c-66bb-49e5-8a20-3e8c98a6bd10","1e Delistraat 11", "Utrecht", "5ab557a7-98bd-45a9-b6ba-7a8173fd64c3", 900));
-        rooms.add(new Room("5f90965d-2a2d-48ae-b037-0eed7b9b838d","Potgieterstraat 33", "Amsterdam", "5ab557a7-98bd-45a9-b6ba-7a8173fd64c3", 1050));
+    public RoomResources(@Context Configuration config) {
+        rooms = new RoomCatalog(RoomStorage.of(Settings.get(config, "storage.mode", RoomStorage.HEAP)));
+        this.epoch = Long.toString(System.currentTimeMillis(), 36);
+        this.algorithm = Algorithm.HMAC256("rest_sot_assignment");
+        this.verifier = JWT.require(this.algorithm).build();
+        this.bookingTtl = Long.parseLong(Settings.get(config, "booking.ttl.minutes", "1440")) * 60_000;
+        this.client = ClientBuilder.newClient(new ClientConfig()
+                .property(ClientProperties.CONNECT_TIMEOUT, 5000)
+                .property(ClientProperties.READ_TIMEOUT, 30000));
+        this.users = this.client.target(Settings.get(config, "user.api", "http://localhost:8080/user/api/"));
+        this.expiry = new BookingExpiry(this.rooms, this::releaseTenants);
+        try {
+            String data = Paths.get(System.getProperty("user.home"), ".rental").toString();
+            this.log = WriteAheadLog.open(
+                    Paths.get(Settings.get(config, "wal.path", Paths.get(data, "room.wal").toString())),
+                    Paths.get(Settings.get(config, "snapshot.path", Paths.get(data, "room.snapshot").toString())),
+                    this.rooms,
+                    Long.parseLong(Settings.get(config, "wal.compact.mb", "64")) << 20,
+                    Math.max(1, Long.parseLong(Settings.get(config, "snapshot.interval.minutes", "10"))) * 60_000);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the room log", e);
+        }
+        String primary = Settings.get(config, "replication.primary", "");
+        // a replica's bookings lapse on the primary and arrive as changes
+        if (primary.isEmpty()) {
+            this.rooms.forEach(this.expiry::track);
+        }
+        this.feed = new ChangeFeed(Integer.parseInt(Settings.get(config, "feed.buffer", "10000")),
+                Integer.parseInt(Settings.get(config, "feed.subscriber.queue", "5000")));
+        this.rooms.addListener(this.feed);
+        this.addresses = new AddressIndex();
+        this.rooms.addListener(this.addresses);
+        this.rooms.forEach(this.addresses::add);
+        this.owned = ownedCities(config);
+        if (!primary.isEmpty()) {
+            this.maxStaleness = Long.parseLong(Settings.get(config, "replication.max.staleness.ms", "5000"));
+            this.replica = CatalogReplica.start(this.rooms, this.client.target(primary), this::serviceToken,
+                    Long.parseLong(Settings.get(config, "replication.poll.millis", "200")));
+            return;
+        }
+        if (this.rooms.size() > 0) {
+            return;
+        }
+        seed(new Room("d7947ed9-9e39-49ec-9930-4a6a24c46105","Drijffhoutstraat 27", "Eindhoven", "7f8365a9-2409-4bee-ac92-b874eeacf159", 400));
+        seed(new Room("ff26d1d1-3ce5-4694-b564-6eb7ec391090","Anjeliersstraat 118", "Amsterdam", "7f8365a9-2409-4bee-ac92-b874eeacf159", 750));
+        seed(new Room("b085ba9a-d4c1-4575-a579-d90378910642","Paul Citroenstraat 13", "Utrecht", "b26c04c2-cd5b-4337-a6ed-cb7bcfe790a5", 600));
+        seed(new Room("22122569-a73d-437a-8b84-af3b22532c23","Jan van Goyenstraat 28", "Eindhoven", "b26c04c2-cd5b-4337-a6ed-cb7bcfe790a5", 500));
+        seed(new Room("5b9f33c7-cb90-46e3-b420-3bed4795ba54","Pijlstaartvlinder 22", "Utrecht", "5ab557a7-98bd-45a9-b6ba-7a8173fd64c3", 850));
+        seed(new Room("de8ba56c-66bb-49e5-8a20-3e8c98a6bd10","1e Delistraat 11", "Utrecht", "5ab557a7-98bd-45a9-b6ba-7a8173fd64c3", 900));
+        seed(new Room("5f90965d-2a2d-48ae-b037-0eed7b9b838d","Potgieterstraat 33", "Amsterdam", "5ab557a7-98bd-45a9-b6ba-7a8173fd64c3", 1050));
+    }
+
+    // on undeploy: the threads of this instance must be gone before a new one opens the same log
+    @PreDestroy
+    public void close() {
+
+        if (this.replica != null) {
+            this.replica.close();
+        }
+        this.expiry.stop();
+        this.feed.close();
+        this.log.close();
+        this.client.close();
+    }
+
+    // with the shard list and this service's own entry in it only cities hashed to this shard are taken.
+    // The list is the rental service's, so a shard is named by its primary and its |replicas are left out.
+    private static Predicate<String> ownedCities(Configuration config) {
+
+        String self = Settings.get(config, "shard.self", "");
+        Map<String, String> shards = new LinkedHashMap<>();
+        for (String shard : Settings.get(config, "room.shards", "").split(",")) {
+            String primary = shard.split("\\|")[0].trim();
+            if (!primary.isEmpty()) {
+                shards.put(primary, primary);
+            }
+        }
+        if (!shards.containsKey(self)) {
+            return city -> true;
+        }
+        ShardRing<String> ring = new ShardRing<>(shards);
+        return city -> self.equals(ring.shardFor(city));
+    }
+
+    private void seed(Room room) {
+
+        if (this.owned.test(room.getCity())) {
+            this.rooms.add(room);
+        }
+    }
+
+    private String serviceToken() {
+
+        Calendar now = Calendar.getInstance();
+        now.add(Calendar.MINUTE, 5);
+        return JWT.create()
+                .withIssuer("room service")
+                .withSubject("admin")
+                .withKeyId("room service")
+                .withExpiresAt(now.getTime())
+                .sign(this.algorithm);
+    }
+
+    // tenants of lapsed bookings may book again; the answers are closed unread so their connections are freed
+    private void releaseTenants(List<Room> expired) {
+
+        String token = serviceToken();
+        for (Room room : expired) {
+            this.users
+                    .path("user/" + room.getTenant() + "/canbook")
+                    .request(MediaType.APPLICATION_JSON)
+                    .header("Authorization", token)
+                    .async()
+                    .put(Entity.text(""), new InvocationCallback<Response>() {
+                        @Override
+                        public void completed(Response response) { response.close(); }
+
+                        @Override
+                        public void failed(Throwable throwable) { }
+                    });
+        }
     }
 
     private boolean isAdmin(String token) {
@@ -51,56 +228,181 @@ public class RoomResources {
 
     private Room roomExists(String id) {
 
-        for (Room room : this.rooms) {
-            if (room.getId().equals(id)) {
-                return room;
-            }
+        return this.rooms.get(id);
+    }
+
+    private int pageLimit(Integer limit) {
+
+        if (limit == null) {
+            return DEFAULT_LIMIT;
         }
-        return null;
+        return Math.max(1, Math.min(limit, MAX_LIMIT));
     }
 
-    private Room roomExistsAddress(String address) {
+    private boolean byRent(Integer minRent, Integer maxRent, String sort) {
 
-        for (Room room : this.rooms) {
-            if (room.getAddress().equals(address)) {
-                return room;
-            }
+        return minRent != null || maxRent != null || "rent".equals(sort);
+    }
+
+    // a replica only serves reads, writes go to the primary. A primary whose log can no longer be
+    // written takes no writes either, so the catalog never holds a change that isn't logged.
+    private Response refuseWrite() {
+
+        if (this.replica != null) {
+            return Response.status(421).entity("Replica is read-only!").type(MediaType.TEXT_PLAIN).build();
+        }
+        if (!this.log.isWritable()) {
+            return Response.status(503).entity("Room log is not writable!").type(MediaType.TEXT_PLAIN).build();
         }
         return null;
     }
 
+    // a replica that hasn't been in step with its primary within the bound stops answering reads
+    private Response staleRead() {
+
+        if (this.replica == null || !this.replica.isBehind(this.maxStaleness)) {
+            return null;
+        }
+        return Response.status(503).entity("Replica is behind!").type(MediaType.TEXT_PLAIN).build();
+    }
+
+    private Long staleness() {
+
+        return this.replica == null ? null : this.replica.stalenessMillis();
+    }
+
+    // versions are counted again while the log replays, so a restarted catalog hands out the same
+    // numbers for other contents; the start time in front tells them apart. No '.' in it, the rental
+    // service joins shard tags with those.
+    private EntityTag etag(long version) {
+
+        return new EntityTag(this.epoch + "-" + version);
+    }
+
+    // the version is read before the page is, and is only bumped once a change is visible: the page holds
+    // every change up to it and may hold later ones that landed while it was being read, so it is not a
+    // snapshot id. A tag only matches while the version is unchanged, so a 304 is never stale, and a 304 on
+    // a page just read says nothing landed in between: that page is exactly its version.
+    private Response pageResponse(Page page, long version) {
+
+        return Response.status(200).entity(page.getRooms()).type(MediaType.APPLICATION_JSON)
+                .tag(etag(version))
+                .header("X-Catalog-Version", version)
+                .header("X-Replica-Staleness", staleness())
+                .header("X-Next-Cursor", Cursor.encode(page.getNext())).build();
+    }
+
+    // the unfiltered first page of free rooms is served from bytes serialized once per change of the free set
+    private Response firstFreePage(long version, Providers providers) {
+
+        long free = this.rooms.freeVersion();
+        FreePage cached = this.freePage;
+        if (cached == null || cached.version != free) {
+            Page page = this.rooms.byStatus(RoomStatus.FREE, null, DEFAULT_LIMIT);
+            cached = new FreePage(free, page.isEmpty() ? null : json(page.getRooms(), providers),
+                    Cursor.encode(page.getNext()));
+            this.freePage = cached;
+        }
+        if (cached.body == null) {
+            return Response.status(404).entity("No free rooms").type(MediaType.TEXT_PLAIN).build();
+        }
+        return Response.status(200).entity(cached.body).type(MediaType.APPLICATION_JSON)
+                .tag(etag(version))
+                .header("X-Catalog-Version", version)
+                .header("X-Replica-Staleness", staleness())
+                .header("X-Next-Cursor", cached.next).build();
+    }
+
+    // same writer Jersey would pick for the list, so cached bytes match a freshly rendered response
+    private byte[] json(List<Room> rooms, Providers providers) {
+
+        Type type = new GenericType<List<Room>>() {}.getType();
+        @SuppressWarnings("unchecked")
+        Class<List<Room>> raw = (Class<List<Room>>) (Class<?>) List.class;
+        MessageBodyWriter<List<Room>> writer = providers.getMessageBodyWriter(raw, type, new Annotation[0],
+                MediaType.APPLICATION_JSON_TYPE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(rooms.size() * 160);
+        try {
+            writer.writeTo(rooms, raw, type, new Annotation[0], MediaType.APPLICATION_JSON_TYPE,
+                    new MultivaluedHashMap<>(), out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private OutboundSseEvent feedEvent(Sse sse, ChangeFeed.Change change) {
+
+        OutboundSseEvent.Builder event = sse.newEventBuilder().id(Long.toString(change.getSequence()));
+        if (change.getEvent() == null) {
+            return event.name("reset").data(Long.toString(change.getSequence())).build();
+        }
+        return event.name(change.getEvent().getType())
+                .mediaType(MediaType.APPLICATION_JSON_TYPE)
+                .data(RoomEvent.class, change.getEvent())
+                .build();
+    }
+
     @GET
     @Path("all")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getAllRooms(@HeaderParam("Authorization") String token) {
+    public Response getAllRooms(@QueryParam("limit") Integer limit, @QueryParam("cursor") String cursor,
+                                @HeaderParam("Authorization") String token, @Context Request request) {
 
         try {
+            Response stale = staleRead();
+            if (stale != null) {
+                return stale;
+            }
             if (isAdmin(token)) {
-                return Response.status(200).entity(this.rooms).type(MediaType.APPLICATION_JSON).build();
+                long version = this.rooms.version();
+                Response.ResponseBuilder unchanged = request.evaluatePreconditions(etag(version));
+                if (unchanged != null) {
+                    return unchanged.build();
+                }
+                return pageResponse(this.rooms.all(Cursor.decode(cursor), pageLimit(limit)), version);
             }
             return Response.status(401).build();
         } catch (JWTVerificationException e) {
             return Response.status(401).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(400).entity(e.getMessage()).type(MediaType.TEXT_PLAIN).build();
         }
     }
 
     @GET
     @Path("free")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getFreeRooms(@HeaderParam("Authorization") String token) {
+    public Response getFreeRooms(@QueryParam("minRent") Integer minRent, @QueryParam("maxRent") Integer maxRent,
+                                 @QueryParam("sort") String sort, @QueryParam("limit") Integer limit,
+                                 @QueryParam("cursor") String cursor, @HeaderParam("Authorization") String token,
+                                 @Context Request request, @Context Providers providers) {
 
         try{
+            Response stale = staleRead();
+            if (stale != null) {
+                return stale;
+            }
             decodeToken(token);
-            List<Room> rms = new ArrayList<>();
-            for (Room room : this.rooms) {
-                if (room.getStatus().equals("free")) { rms.add(room); }
+            long version = this.rooms.version();
+            Response.ResponseBuilder unchanged = request.evaluatePreconditions(etag(version));
+            if (unchanged != null) {
+                return unchanged.build();
             }
-            if (rms.size() > 0) {
-                return Response.status(200).entity(rms).type(MediaType.APPLICATION_JSON).build();
+            if (cursor == null && !byRent(minRent, maxRent, sort) && pageLimit(limit) == DEFAULT_LIMIT) {
+                return firstFreePage(version, providers);
+            }
+            Page page = byRent(minRent, maxRent, sort)
+                    ? this.rooms.byRent(null, RoomStatus.FREE, minRent, maxRent, Cursor.decode(cursor), pageLimit(limit))
+                    : this.rooms.byStatus(RoomStatus.FREE, Cursor.decode(cursor), pageLimit(limit));
+            if (!page.isEmpty()) {
+                return pageResponse(page, version);
             }
             return Response.status(404).entity("No free rooms").type(MediaType.TEXT_PLAIN).build();
         } catch (JWTVerificationException e) {
             return Response.status(401).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(400).entity(e.getMessage()).type(MediaType.TEXT_PLAIN).build();
         }
     }
 
@@ -110,10 +412,17 @@ public class RoomResources {
     public Response getRoom(@PathParam("id") String id, @HeaderParam("Authorization") String token) {
 
         try {
+            Response stale = staleRead();
+            if (stale != null) {
+                return stale;
+            }
             decodeToken(token);
+            long version = this.rooms.version();
             Room room = roomExists(id);
             if (room != null) {
-                return Response.status(200).entity(room).type(MediaType.APPLICATION_JSON).build();
+                return Response.status(200).entity(room).type(MediaType.APPLICATION_JSON)
+                        .header("X-Catalog-Version", version)
+                        .header("X-Replica-Staleness", staleness()).build();
             }
             return Response.status(404).entity("Room not found").type(MediaType.TEXT_PLAIN).build();
         } catch (JWTVerificationException e) {
@@ -124,47 +433,140 @@ public class RoomResources {
     @GET
     @Path("rooms")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getRoomsByCity(@QueryParam("city") String city, @HeaderParam("Authorization") String token) {
+    public Response getRoomsByCity(@QueryParam("city") String city, @QueryParam("minRent") Integer minRent,
+                                   @QueryParam("maxRent") Integer maxRent, @QueryParam("sort") String sort,
+                                   @QueryParam("limit") Integer limit, @QueryParam("cursor") String cursor,
+                                   @HeaderParam("Authorization") String token, @Context Request request) {
 
         try {
+            Response stale = staleRead();
+            if (stale != null) {
+                return stale;
+            }
             decodeToken(token);
-            List<Room> rms = new ArrayList<>();
-            for (Room room : this.rooms) {
-                if (room.getCity().equals(city)) {
-                    rms.add(room);
-                }
+            long version = this.rooms.version();
+            Response.ResponseBuilder unchanged = request.evaluatePreconditions(etag(version));
+            if (unchanged != null) {
+                return unchanged.build();
             }
-            if (rms.size() > 0) {
-                return Response.status(200).entity(rms).type(MediaType.APPLICATION_JSON).build();
+            if (city == null) {
+                return Response.status(404).entity("No rooms in that city").type(MediaType.TEXT_PLAIN).build();
+            }
+            Page page = byRent(minRent, maxRent, sort)
+                    ? this.rooms.byRent(city, null, minRent, maxRent, Cursor.decode(cursor), pageLimit(limit))
+                    : this.rooms.byCity(city, Cursor.decode(cursor), pageLimit(limit));
+            if (!page.isEmpty()) {
+                return pageResponse(page, version);
             }
             return Response.status(404).entity("No rooms in that city").type(MediaType.TEXT_PLAIN).build();
         } catch (JWTVerificationException e) {
             return Response.status(401).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(400).entity(e.getMessage()).type(MediaType.TEXT_PLAIN).build();
+        }
+    }
+
+    @GET
+    @Path("rooms/stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getStats(@HeaderParam("Authorization") String token) {
+
+        try {
+            Response stale = staleRead();
+            if (stale != null) {
+                return stale;
+            }
+            decodeToken(token);
+            return Response.status(200).entity(this.rooms.stats()).type(MediaType.APPLICATION_JSON)
+                    .header("X-Catalog-Version", this.rooms.version()).build();
+        } catch (JWTVerificationException e) {
+            return Response.status(401).build();
+        }
+    }
+
+    @GET
+    @Path("rooms/search")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response searchRooms(@QueryParam("q") String query, @QueryParam("limit") Integer limit,
+                                @HeaderParam("Authorization") String token) {
+
+        try {
+            Response stale = staleRead();
+            if (stale != null) {
+                return stale;
+            }
+            decodeToken(token);
+            if (query == null || query.trim().isEmpty()) {
+                return Response.status(400).entity("No query given!").type(MediaType.TEXT_PLAIN).build();
+            }
+            int k = limit == null ? SEARCH_LIMIT : Math.max(1, Math.min(limit, MAX_SEARCH_LIMIT));
+            List<Room> found = new ArrayList<>();
+            for (String id : this.addresses.search(query, k)) {
+                Room room = this.rooms.get(id);
+                if (room != null) {
+                    found.add(room);
+                }
+            }
+            return Response.status(200).entity(found).type(MediaType.APPLICATION_JSON).build();
+        } catch (JWTVerificationException e) {
+            return Response.status(401).build();
         }
     }
 
     @GET
     @Path("rooms/landlord/{id}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getRoomsByLandlord(@PathParam("id") String id, @HeaderParam("Authorization") String token) {
+    public Response getRoomsByLandlord(@PathParam("id") String id, @QueryParam("limit") Integer limit,
+                                       @QueryParam("cursor") String cursor,
+                                       @HeaderParam("Authorization") String token, @Context Request request) {
 
         try {
+            Response stale = staleRead();
+            if (stale != null) {
+                return stale;
+            }
             if (isLandlord(token)) {
-                List<Room> rms = new ArrayList<>();
-                for (Room room : this.rooms) {
-                    if (room.getLandlord().equals(id)) {
-                        rms.add(room);
-                    }
+                long version = this.rooms.version();
+                Response.ResponseBuilder unchanged = request.evaluatePreconditions(etag(version));
+                if (unchanged != null) {
+                    return unchanged.build();
                 }
-                if (rms.size() > 0) {
-                    return Response.status(200).entity(rms).type(MediaType.APPLICATION_JSON).build();
+                Page page = this.rooms.byLandlord(id, Cursor.decode(cursor), pageLimit(limit));
+                if (!page.isEmpty()) {
+                    return pageResponse(page, version);
                 }
                 return Response.status(404).entity("No rooms for that landlord!").type(MediaType.TEXT_PLAIN).build();
             }
             return Response.status(401).build();
         } catch (JWTVerificationException e) {
             return Response.status(401).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(400).entity(e.getMessage()).type(MediaType.TEXT_PLAIN).build();
+        }
+    }
+
+    @GET
+    @Path("rooms/feed")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    public void getRoomFeed(@HeaderParam("Authorization") String token,
+                            @HeaderParam(HttpHeaders.LAST_EVENT_ID_HEADER) String lastEventId,
+                            @QueryParam("since") Long since, @Context SseEventSink sink, @Context Sse sse) {
+
+        try {
+            decodeToken(token);
+        } catch (JWTVerificationException e) {
+            throw new WebApplicationException(401);
+        }
+        Long from = since;
+        if (lastEventId != null) {
+            try {
+                from = Long.parseLong(lastEventId.trim());
+            } catch (NumberFormatException e) {
+                throw new WebApplicationException(
+                        Response.status(400).entity("Invalid event id!").type(MediaType.TEXT_PLAIN).build());
+            }
         }
+        this.feed.subscribe(from, change -> sink.send(feedEvent(sse, change)), sink::close);
     }
 
     @POST
@@ -174,9 +576,16 @@ public class RoomResources {
     public Response newRoom(Room room, @HeaderParam("Authorization") String token) {
 
         try {
+            Response refused = refuseWrite();
+            if (refused != null) {
+                return refused;
+            }
             if (isLandlord(token)) {
-                if (roomExistsAddress(room.getAddress()) == null) {
-                    rooms.add(room);
+                if (!this.owned.test(room.getCity())) {
+                    return Response.status(421).entity("City belongs to another shard!").type(MediaType.TEXT_PLAIN).build();
+                }
+                if (rooms.add(room)) {
+                    this.log.sync();
                     return Response.status(201).entity("Room posted!").type(MediaType.TEXT_PLAIN).build();
                 }
                 return Response.status(409).entity("Room with that address is already posted!")
@@ -188,17 +597,53 @@ public class RoomResources {
         }
     }
 
+    @POST
+    @Path("rooms/import")
+    @Consumes({MediaType.APPLICATION_JSON, RoomImport.NDJSON})
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response importRooms(InputStream body, @HeaderParam("Content-Type") String contentType,
+                                @HeaderParam("Authorization") String token) {
+
+        try {
+            Response refused = refuseWrite();
+            if (refused != null) {
+                return refused;
+            }
+            if (isLandlord(token)) {
+                RoomImport importer = new RoomImport(this.rooms, decodeToken(token).getKeyId(), this.owned);
+                ImportSummary summary = contentType != null && contentType.startsWith(RoomImport.NDJSON)
+                        ? importer.fromNdjson(body)
+                        : importer.fromJson(body);
+                this.log.sync();
+                return Response.status(200).entity(summary).type(MediaType.APPLICATION_JSON).build();
+            }
+            return Response.status(401).build();
+        } catch (JWTVerificationException e) {
+            return Response.status(401).build();
+        } catch (IOException e) {
+            return Response.status(400).entity("Could not read rooms!").type(MediaType.TEXT_PLAIN).build();
+        }
+    }
+
     @GET
     @Path("room/{id}/book")
     @Produces(MediaType.APPLICATION_JSON)
     public Response bookRoom(@PathParam("id") String id, @HeaderParam("Authorization") String token) {
 
         try {
+            Response refused = refuseWrite();
+            if (refused != null) {
+                return refused;
+            }
             DecodedJWT tkn = decodeToken(token);
             Room room = roomExists(id);
             if (room != null) {
-                room.book(tkn.getKeyId());
-                return Response.status(204).build();
+                if (this.rooms.book(room, tkn.getKeyId(), System.currentTimeMillis() + this.bookingTtl)) {
+                    this.expiry.track(roomExists(id));
+                    this.log.sync();
+                    return Response.status(204).build();
+                }
+                return Response.status(409).entity("Room is not available!").type(MediaType.TEXT_PLAIN).build();
             }
             return Response.status(404).entity("Room not found!").type(MediaType.TEXT_PLAIN).build();
         } catch (JWTVerificationException e) {
@@ -212,13 +657,20 @@ public class RoomResources {
     public Response cancelBooking(@PathParam("id") String id, @HeaderParam("Authorization") String token) {
 
         try {
+            Response refused = refuseWrite();
+            if (refused != null) {
+                return refused;
+            }
             DecodedJWT jwt = decodeToken(token);
             Room room = roomExists(id);
             String tknId = jwt.getKeyId();
             if (room != null) {
                 if (room.getLandlord().equals(tknId) || room.getTenant().equals(tknId)) {
-                    room.cancelBooking();
-                    return Response.status(204).build();
+                    if (this.rooms.cancelBooking(room)) {
+                        this.log.sync();
+                        return Response.status(204).build();
+                    }
+                    return Response.status(409).entity("Room is not booked!").type(MediaType.TEXT_PLAIN).build();
                 }
                 return Response.status(401).build();
             }
@@ -234,11 +686,18 @@ public class RoomResources {
     public Response rentRoom(@PathParam("id") String id, @HeaderParam("Authorization") String token) {
 
         try {
+            Response refused = refuseWrite();
+            if (refused != null) {
+                return refused;
+            }
             if(isLandlord(token)) {
                 Room room = roomExists(id);
                 if (room != null) {
-                    room.rent();
-                    return Response.status(204).build();
+                    if (this.rooms.rent(room)) {
+                        this.log.sync();
+                        return Response.status(204).build();
+                    }
+                    return Response.status(409).entity("Room is not booked!").type(MediaType.TEXT_PLAIN).build();
                 }
                 return Response.status(404).entity("Room not found!").type(MediaType.TEXT_PLAIN).build();
             }
@@ -254,10 +713,15 @@ public class RoomResources {
     public Response deleteRoom(@PathParam("id") String id, @HeaderParam("Authorization") String token) {
 
         try {
+            Response refused = refuseWrite();
+            if (refused != null) {
+                return refused;
+            }
             if (isLandlord(token)) {
                 Room room = roomExists(id);
                 if (room != null) {
-                    this.rooms.remove(room);
+                    this.rooms.remove(id);
+                    this.log.sync();
                     return Response.status(204).build();
                 }
                 return Response.status(404).entity("Room not found!").type(MediaType.TEXT_PLAIN).build();
@@ -274,14 +738,13 @@ public class RoomResources {
     public Response deleteRoomsByLandlord(@PathParam("id") String id, @HeaderParam("Authorization") String token) {
 
         try {
+            Response refused = refuseWrite();
+            if (refused != null) {
+                return refused;
+            }
             if (isAdmin(token)) {
-                List<Room> rms = new ArrayList<>();
-                for (Room room : this.rooms) {
-                    if (!room.getLandlord().equals(id)) {
-                        rms.add(room);
-                    }
-                }
-                this.rooms = rms;
+                this.rooms.removeByLandlord(id);
+                this.log.sync();
                 return Response.status(204).build();
             }
             return Response.status(401).build();
@@ -290,19 +753,43 @@ public class RoomResources {
         }
     }
 
+    @POST
+    @Path("rooms/delete")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response deleteRoomsByLandlords(List<String> ids, @HeaderParam("Authorization") String token) {
+
+        try {
+            Response refused = refuseWrite();
+            if (refused != null) {
+                return refused;
+            }
+            if (isAdmin(token)) {
+                if (ids == null) {
+                    return Response.status(400).entity("No landlords given!").type(MediaType.TEXT_PLAIN).build();
+                }
+                Map<String, Integer> removed = this.rooms.removeByLandlords(ids);
+                this.log.sync();
+                return Response.status(200).entity(removed).type(MediaType.APPLICATION_JSON).build();
+            }
+            return Response.status(401).build();
+        } catch (JWTVerificationException e) {
+            return Response.status(401).build();
+        }
+    }
+
     @GET
     @Path("rooms/tenant/{id}")
     @Produces(MediaType.APPLICATION_JSON)
     public Response getRoomsByTenant(@PathParam("id") String id, @HeaderParam("Authorization") String token) {
 
         try {
-            decodeToken(token);
-            List<Room> rms = new ArrayList<>();
-            for (Room room : this.rooms) {
-                if(room.getTenant().equals(id)) {
-                    rms.add(room);
-                }
+            Response stale = staleRead();
+            if (stale != null) {
+                return stale;
             }
+            decodeToken(token);
+            List<Room> rms = this.rooms.byTenant(id);
             if (rms.size() > 0) {
                 return Response.status(200).entity(rms).type(MediaType.APPLICATION_JSON).build();
             }
@@ -318,12 +805,13 @@ public class RoomResources {
     public Response updateRooms(@PathParam("id") String id, @HeaderParam("Authorization") String token) {
 
         try {
+            Response refused = refuseWrite();
+            if (refused != null) {
+                return refused;
+            }
             if (isAdmin(token)) {
-                for (Room room : this.rooms) {
-                    if (room.getTenant().equals(id)) {
-                        room.cancelBooking();
-                    }
-                }
+                this.rooms.cancelByTenant(id);
+                this.log.sync();
                 return Response.status(201).build();
             }
             return Response.status(401).build();
@@ -331,4 +819,126 @@ public class RoomResources {
             return Response.status(401).build();
         }
     }
+
+    @POST
+    @Path("rooms/update")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response updateRoomsByTenants(List<String> ids, @HeaderParam("Authorization") String token) {
+
+        try {
+            Response refused = refuseWrite();
+            if (refused != null) {
+                return refused;
+            }
+            if (isAdmin(token)) {
+                if (ids == null) {
+                    return Response.status(400).entity("No tenants given!").type(MediaType.TEXT_PLAIN).build();
+                }
+                Map<String, Integer> cancelled = this.rooms.cancelByTenants(ids);
+                this.log.sync();
+                return Response.status(200).entity(cancelled).type(MediaType.APPLICATION_JSON).build();
+            }
+            return Response.status(401).build();
+        } catch (JWTVerificationException e) {
+            return Response.status(401).build();
+        }
+    }
+
+    @GET
+    @Path("rooms/replication/changes")
+    @Produces(ReplicationStream.MEDIA_TYPE)
+    public Response getChanges(@QueryParam("since") Long since, @QueryParam("limit") Integer limit,
+                               @HeaderParam("Authorization") String token) {
+
+        try {
+            if (isAdmin(token)) {
+                long head = this.feed.sequence();
+                List<ChangeFeed.Change> changes = since == null ? null
+                        : this.feed.after(since, limit == null ? DEFAULT_LIMIT : Math.max(1, Math.min(limit, 10 * MAX_LIMIT)));
+                if (changes == null) {
+                    return Response.status(410).entity("Changes are gone, reload the snapshot!")
+                            .type(MediaType.TEXT_PLAIN).build();
+                }
+                StreamingOutput body = out -> ReplicationStream.writeChanges(out, changes);
+                return Response.status(200).entity(body).type(ReplicationStream.MEDIA_TYPE)
+                        .header(ReplicationStream.SEQUENCE, head).build();
+            }
+            return Response.status(401).build();
+        } catch (JWTVerificationException e) {
+            return Response.status(401).build();
+        }
+    }
+
+    // every room, and the feed position to follow the changes from
+    @GET
+    @Path("rooms/replication/snapshot")
+    @Produces(ReplicationStream.MEDIA_TYPE)
+    public Response getSnapshot(@HeaderParam("Authorization") String token) {
+
+        try {
+            if (isAdmin(token)) {
+                long head = this.feed.sequence();
+                StreamingOutput body = out -> ReplicationStream.writeSnapshot(out, this.rooms);
+                return Response.status(200).entity(body).type(ReplicationStream.MEDIA_TYPE)
+                        .header(ReplicationStream.SEQUENCE, head).build();
+            }
+            return Response.status(401).build();
+        } catch (JWTVerificationException e) {
+            return Response.status(401).build();
+        }
+    }
+
+    @GET
+    @Path("metrics")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getMetrics(@HeaderParam("Authorization") String token) {
+
+        try {
+            if (isAdmin(token)) {
+                Map<String, Object> metrics = new LinkedHashMap<>();
+                metrics.put("rooms", this.rooms.size());
+                metrics.put("catalogVersion", this.rooms.version());
+                metrics.put("storage", this.rooms.storage().name());
+                metrics.put("offHeapBytes", this.rooms.storage().offHeapBytes());
+                metrics.put("startupMillis", this.log.startupMillis());
+                metrics.put("snapshotRooms", this.log.snapshotRooms());
+                metrics.put("replayedRecords", this.log.replayedRecords());
+                metrics.put("snapshotsWritten", this.log.snapshotsWritten());
+                metrics.put("logBytes", this.log.size());
+                metrics.put("logWritable", this.log.isWritable());
+                metrics.put("logFailure", this.log.failure());
+                metrics.put("snapshotFailures", this.log.snapshotFailures());
+                metrics.put("feedSubscribers", this.feed.subscribers());
+                metrics.put("feedSequence", this.feed.sequence());
+                metrics.put("replicationRole", this.replica == null ? "primary" : "replica");
+                if (this.replica != null) {
+                    metrics.put("replicationPosition", this.replica.position());
+                    metrics.put("replicationLag", this.replica.lag());
+                    metrics.put("replicationStalenessMillis", this.replica.stalenessMillis());
+                    metrics.put("replicationApplied", this.replica.applied());
+                    metrics.put("replicationResyncs", this.replica.resyncs());
+                    metrics.put("replicationErrors", this.replica.errors());
+                    metrics.put("replicationTombstones", this.rooms.tombstones());
+                }
+                return Response.status(200).entity(metrics).type(MediaType.APPLICATION_JSON).build();
+            }
+            return Response.status(401).build();
+        } catch (JWTVerificationException e) {
+            return Response.status(401).build();
+        }
+    }
+
+    private static final class FreePage {
+
+        private final long version;
+        private final byte[] body;
+        private final String next;
+
+        private FreePage(long version, byte[] body, String next) {
+            this.version = version;
+            this.body = body;
+            this.next = next;
+        }
+    }
 }
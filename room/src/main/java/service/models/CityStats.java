@@ -0,0 +1,63 @@
+package service.models;
+
+// counters for one city; never mutated, an update swaps in a new copy
+public final class CityStats {
+
+    private final String city;
+    private final int free;
+    private final int booked;
+    private final int rented;
+    private final long rentTotal;
+    private final int minRent;
+    private final int maxRent;
+
+    private CityStats(String city, int free, int booked, int rented, long rentTotal, int minRent, int maxRent) {
+        this.city = city;
+        this.free = free;
+        this.booked = booked;
+        this.rented = rented;
+        this.rentTotal = rentTotal;
+        this.minRent = minRent;
+        this.maxRent = maxRent;
+    }
+
+    public static CityStats empty(String city) {
+        return new CityStats(city, 0, 0, 0, 0, 0, 0);
+    }
+
+    public String getCity() { return city; }
+
+    public int getFree() { return free; }
+
+    public int getBooked() { return booked; }
+
+    public int getRented() { return rented; }
+
+    public int getRooms() { return free + booked + rented; }
+
+    public int getMinRent() { return minRent; }
+
+    public int getMaxRent() { return maxRent; }
+
+    public double getAverageRent() {
+        return getRooms() == 0 ? 0 : (double) rentTotal / getRooms();
+    }
+
+    // a room with this rent moved from one status to another; null stands for "not in the catalog"
+    public CityStats move(RoomStatus from, RoomStatus to, int rent) {
+
+        int free = this.free + delta(RoomStatus.FREE, from, to);
+        int booked = this.booked + delta(RoomStatus.BOOKED, from, to);
+        int rented = this.rented + delta(RoomStatus.RENTED, from, to);
+        long total = this.rentTotal + (from == null ? rent : 0) - (to == null ? rent : 0);
+        return new CityStats(this.city, free, booked, rented, total, this.minRent, this.maxRent);
+    }
+
+    public CityStats withRange(int minRent, int maxRent) {
+        return new CityStats(this.city, this.free, this.booked, this.rented, this.rentTotal, minRent, maxRent);
+    }
+
+    private static int delta(RoomStatus status, RoomStatus from, RoomStatus to) {
+        return (status == to ? 1 : 0) - (status == from ? 1 : 0);
+    }
+}
@@ -0,0 +1,35 @@
+package service.models;
+
+public class ImportResult {
+
+    private int index;
+    private String id;
+    private int status;
+    private String message;
+
+    public ImportResult() {
+    }
+
+    public ImportResult(int index, String id, int status, String message) {
+        this.index = index;
+        this.id = id;
+        this.status = status;
+        this.message = message;
+    }
+
+    public int getIndex() { return index; }
+
+    public void setIndex(int index) { this.index = index; }
+
+    public String getId() { return id; }
+
+    public void setId(String id) { this.id = id; }
+
+    public int getStatus() { return status; }
+
+    public void setStatus(int status) { this.status = status; }
+
+    public String getMessage() { return message; }
+
+    public void setMessage(String message) { this.message = message; }
+}
@@ -10,30 +10,29 @@ public class Room {
     private String city;
     private String landlord;
     private int rent;
-    private String status;
-    private String tenant;
+    private RoomState state;
+    private long revision;
 
     public Room() {
+        this.state = RoomState.FREE;
     }
 
     public Room(String address, String city, String landlord, int rent) {
         this.id = UUID.randomUUID().toString();
         this.address = address;
-        this.city = city;
-        this.landlord = landlord;
+        this.city = Symbols.intern(city);
+        this.landlord = Symbols.intern(landlord);
         this.rent = rent;
-        this.status = "free";
-        this.tenant = "";
+        this.state = RoomState.FREE;
     }
 
     public Room(String uuid, String address, String city, String landlord, int rent) {
         this.id = uuid;
         this.address = address;
-        this.city = city;
-        this.landlord = landlord;
+        this.city = Symbols.intern(city);
+        this.landlord = Symbols.intern(landlord);
         this.rent = rent;
-        this.status = "free";
-        this.tenant = "";
+        this.state = RoomState.FREE;
     }
 
     public String getId() { return id; }
@@ -50,14 +49,14 @@ public class Room {
 
     public String getCity() { return city; }
 
-    public void setCity(String city) { this.city = city; }
+    public void setCity(String city) { this.city = Symbols.intern(city); }
 
     public String getLandlord() {
         return landlord;
     }
 
     public void setLandlord(String landlord) {
-        this.landlord = landlord;
+        this.landlord = Symbols.intern(landlord);
     }
 
     public int getRent() { return rent; }
@@ -67,19 +66,31 @@ public class Room {
     }
 
     public String getStatus() {
-        return status;
+        return state.getStatus().label();
     }
 
     public void setStatus(String status) {
-        this.status = status;
+        this.state = RoomState.of(RoomStatus.parse(status), getTenant());
     }
 
     public String getTenant() {
-        return tenant;
+        return state.getTenant();
     }
 
     public void setTenant(String tenant) {
-        this.tenant = tenant;
+        this.state = RoomState.of(this.state.getStatus(), tenant);
+    }
+
+    public RoomState state() { return state; }
+
+    // orders the versions of one room; assigned by the catalog when a version is published
+    public long revision() { return revision; }
+
+    public Room withState(RoomState state, long revision) {
+        Room room = new Room(this.id, this.address, this.city, this.landlord, this.rent);
+        room.state = state;
+        room.revision = revision;
+        return room;
     }
 
     @Override
@@ -100,23 +111,7 @@ public class Room {
                 "',landlord='" + this.landlord +
                 "',rent='" + this.rent +
                 "',id='" + this.id+
-                "',tenant='" + this.tenant+
-                "',status='" + this.status + "'}";
-    }
-
-    public void book(String tenant) {
-        if (this.status.equals("free")) {
-            setStatus("booked");
-            setTenant(tenant);
-        }
-    }
-
-    public void cancelBooking() {
-        setStatus("free");
-        setTenant("");
-    }
-
-    public void rent() {
-        setStatus("rented");
+                "',tenant='" + this.state.getTenant() +
+                "',status='" + this.state.getStatus().label() + "'}";
     }
 }
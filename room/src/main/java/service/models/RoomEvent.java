@@ -0,0 +1,35 @@
+package service.models;
+
+public class RoomEvent {
+
+    public static final String CREATED = "created";
+    public static final String BOOKED = "booked";
+    public static final String CANCELLED = "cancelled";
+    public static final String RENTED = "rented";
+    public static final String DELETED = "deleted";
+
+    private String type;
+    private long revision;
+    private Room room;
+
+    public RoomEvent() {
+    }
+
+    public RoomEvent(String type, long revision, Room room) {
+        this.type = type;
+        this.revision = revision;
+        this.room = room;
+    }
+
+    public String getType() { return type; }
+
+    public void setType(String type) { this.type = type; }
+
+    public long getRevision() { return revision; }
+
+    public void setRevision(long revision) { this.revision = revision; }
+
+    public Room getRoom() { return room; }
+
+    public void setRoom(Room room) { this.room = room; }
+}
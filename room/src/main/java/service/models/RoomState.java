@@ -0,0 +1,53 @@
+package service.models;
+
+public final class RoomState {
+
+    public static final RoomState FREE = new RoomState(RoomStatus.FREE, "", 0);
+
+    private final RoomStatus status;
+    private final String tenant;
+    private final long deadline;
+
+    private RoomState(RoomStatus status, String tenant, long deadline) {
+        this.status = status;
+        this.tenant = tenant == null ? "" : tenant;
+        this.deadline = deadline;
+    }
+
+    public static RoomState of(RoomStatus status, String tenant) {
+        if (status == RoomStatus.FREE && (tenant == null || tenant.isEmpty())) {
+            return FREE;
+        }
+        return new RoomState(status, tenant, 0);
+    }
+
+    public static RoomState of(RoomStatus status, String tenant, long deadline) {
+        if (status == RoomStatus.FREE && (tenant == null || tenant.isEmpty())) {
+            return FREE;
+        }
+        return new RoomState(status, tenant, deadline);
+    }
+
+    public RoomStatus getStatus() { return status; }
+
+    public String getTenant() { return tenant; }
+
+    // epoch millis after which an unconfirmed booking lapses, 0 when there is none
+    public long getDeadline() { return deadline; }
+
+    public boolean isFree() { return status == RoomStatus.FREE; }
+
+    public boolean isBooked() { return status == RoomStatus.BOOKED; }
+
+    public RoomState book(String tenant, long deadline) {
+        return isFree() ? new RoomState(RoomStatus.BOOKED, tenant, deadline) : null;
+    }
+
+    public RoomState cancel() {
+        return isFree() ? null : FREE;
+    }
+
+    public RoomState rent() {
+        return isBooked() ? new RoomState(RoomStatus.RENTED, this.tenant, 0) : null;
+    }
+}
@@ -0,0 +1,25 @@
+package service.models;
+
+public enum RoomStatus {
+
+    FREE("free"),
+    BOOKED("booked"),
+    RENTED("rented");
+
+    private final String label;
+
+    RoomStatus(String label) {
+        this.label = label;
+    }
+
+    public String label() { return label; }
+
+    public static RoomStatus parse(String label) {
+        for (RoomStatus status : values()) {
+            if (status.label.equals(label)) {
+                return status;
+            }
+        }
+        throw new IllegalArgumentException("Unknown room status: " + label);
+    }
+}
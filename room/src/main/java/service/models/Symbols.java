@@ -0,0 +1,24 @@
+package service.models;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+// one shared String per distinct city or landlord id, so a large catalog doesn't hold a copy per room.
+// The table is never emptied, so tenants, who come and go with every booking, are not put in it.
+public final class Symbols {
+
+    private static final ConcurrentHashMap<String, String> TABLE = new ConcurrentHashMap<>();
+
+    private Symbols() {
+    }
+
+    public static String intern(String value) {
+
+        if (value == null || value.isEmpty()) {
+            return value == null ? null : "";
+        }
+        String shared = TABLE.putIfAbsent(value, value);
+        return shared == null ? value : shared;
+    }
+
+    public static int size() { return TABLE.size(); }
+}
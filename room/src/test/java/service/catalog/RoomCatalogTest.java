@@ -0,0 +1,258 @@
+package service.catalog;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import service.models.CityStats;
+import service.models.Room;
+import service.models.RoomStatus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(Parameterized.class)
+public class RoomCatalogTest {
+
+    private static final int ALL = 10_000;
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> storages() {
+        return Arrays.asList(new Object[][]{{RoomStorage.HEAP}, {RoomStorage.OFF_HEAP}});
+    }
+
+    private final String storage;
+    private RoomCatalog rooms;
+
+    public RoomCatalogTest(String storage) {
+        this.storage = storage;
+    }
+
+    @Before
+    public void fill() {
+
+        this.rooms = new RoomCatalog(RoomStorage.of(this.storage));
+        for (int i = 0; i < 60; i++) {
+            assertTrue(this.rooms.add(new Room("room-" + i, "Street " + i, "City " + (i % 4), "landlord-" + (i % 5),
+                    300 + 10 * i)));
+        }
+    }
+
+    @Test
+    public void bookRentAndCancel() {
+
+        assertTrue(this.rooms.book(this.rooms.get("room-1"), "tenant-1", 0));
+        Room booked = this.rooms.get("room-1");
+        assertEquals(RoomStatus.BOOKED, booked.state().getStatus());
+        assertEquals("tenant-1", booked.state().getTenant());
+
+        assertTrue(this.rooms.rent(booked));
+        Room rented = this.rooms.get("room-1");
+        assertEquals(RoomStatus.RENTED, rented.state().getStatus());
+        assertEquals("tenant-1", rented.state().getTenant());
+
+        assertTrue(this.rooms.cancelBooking(rented));
+        assertTrue(this.rooms.get("room-1").state().isFree());
+        assertEquals("", this.rooms.get("room-1").state().getTenant());
+    }
+
+    @Test
+    public void refusesTransitionsFromTheWrongState() {
+
+        Room free = this.rooms.get("room-2");
+        assertFalse(this.rooms.rent(free));
+        assertFalse(this.rooms.cancelBooking(free));
+
+        assertTrue(this.rooms.book(free, "tenant-2", 0));
+        assertFalse(this.rooms.book(this.rooms.get("room-2"), "tenant-3", 0));
+        assertEquals("tenant-2", this.rooms.get("room-2").state().getTenant());
+    }
+
+    // a room read before somebody else changed it can't be used to change it again
+    @Test
+    public void refusesAStaleRoom() {
+
+        Room stale = this.rooms.get("room-3");
+        assertTrue(this.rooms.book(stale, "tenant-3", 0));
+        assertTrue(this.rooms.cancelBooking(this.rooms.get("room-3")));
+        assertTrue(this.rooms.get("room-3").state().isFree());
+
+        assertFalse(this.rooms.book(stale, "tenant-4", 0));
+        assertTrue(this.rooms.get("room-3").state().isFree());
+    }
+
+    @Test
+    public void everyChangeMovesTheVersion() {
+
+        long version = this.rooms.version();
+        assertTrue(this.rooms.book(this.rooms.get("room-4"), "tenant-4", 0));
+        assertTrue(this.rooms.version() > version);
+
+        version = this.rooms.version();
+        assertFalse(this.rooms.rent(this.rooms.get("room-5")));
+        assertEquals(version, this.rooms.version());
+
+        this.rooms.remove("room-5");
+        assertTrue(this.rooms.version() > version);
+    }
+
+    @Test
+    public void expiresOnlyTheBookingItWasGiven() {
+
+        assertTrue(this.rooms.book(this.rooms.get("room-6"), "tenant-6", 0));
+        long revision = this.rooms.get("room-6").revision();
+        assertTrue(this.rooms.rent(this.rooms.get("room-6")));
+        assertNull(this.rooms.expire("room-6", revision));
+        assertEquals(RoomStatus.RENTED, this.rooms.get("room-6").state().getStatus());
+
+        assertTrue(this.rooms.book(this.rooms.get("room-7"), "tenant-7", 0));
+        assertEquals("room-7", this.rooms.expire("room-7", this.rooms.get("room-7").revision()).getId());
+        assertTrue(this.rooms.get("room-7").state().isFree());
+    }
+
+    @Test
+    public void cancelsEveryBookingOfATenant() {
+
+        assertTrue(this.rooms.book(this.rooms.get("room-8"), "tenant-8", 0));
+        assertTrue(this.rooms.book(this.rooms.get("room-9"), "tenant-8", 0));
+        assertTrue(this.rooms.book(this.rooms.get("room-10"), "tenant-10", 0));
+
+        assertEquals(2, this.rooms.cancelByTenant("tenant-8").size());
+        assertTrue(this.rooms.byTenant("tenant-8").isEmpty());
+        assertEquals(1, this.rooms.byTenant("tenant-10").size());
+        assertConsistent();
+    }
+
+    @Test
+    public void removesRoomsFromEveryIndex() {
+
+        assertTrue(this.rooms.book(this.rooms.get("room-11"), "tenant-11", 0));
+        assertEquals("room-11", this.rooms.remove("room-11").getId());
+        assertNull(this.rooms.get("room-11"));
+        assertNull(this.rooms.remove("room-11"));
+        assertTrue(this.rooms.byTenant("tenant-11").isEmpty());
+
+        assertEquals(12, this.rooms.removeByLandlord("landlord-0").size());
+        assertTrue(this.rooms.byLandlord("landlord-0").isEmpty());
+        assertEquals(47, this.rooms.size());
+        assertConsistent();
+    }
+
+    @Test
+    public void pagesFollowTheCursor() {
+
+        Set<String> seen = new TreeSet<>();
+        String after = null;
+        do {
+            Page page = this.rooms.byCity("City 1", after, 4);
+            for (Room room : page.getRooms()) {
+                assertEquals("City 1", room.getCity());
+                assertTrue(seen.add(room.getId()));
+            }
+            after = page.getNext();
+        } while (after != null);
+        assertEquals(15, seen.size());
+    }
+
+    // the status, tenant, city, landlord and rent indexes and the city stats after random transitions
+    @Test
+    public void indexesAndStatsFollowRandomTransitions() {
+
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            Room room = this.rooms.get("room-" + random.nextInt(60));
+            if (room == null) {
+                continue;
+            }
+            switch (random.nextInt(4)) {
+                case 0:
+                    this.rooms.book(room, "tenant-" + random.nextInt(6), 0);
+                    break;
+                case 1:
+                    this.rooms.rent(room);
+                    break;
+                case 2:
+                    this.rooms.cancelBooking(room);
+                    break;
+                default:
+                    if (random.nextInt(20) == 0) {
+                        this.rooms.remove(room.getId());
+                    }
+            }
+        }
+        assertConsistent();
+    }
+
+    private void assertConsistent() {
+
+        Map<RoomStatus, Set<String>> statuses = new HashMap<>();
+        Map<String, Set<String>> tenants = new HashMap<>();
+        Map<String, Set<String>> cities = new HashMap<>();
+        Map<String, int[]> counts = new HashMap<>();
+        List<Room> all = new ArrayList<>();
+        this.rooms.forEach(all::add);
+        assertEquals(this.rooms.size(), all.size());
+        for (Room room : all) {
+            RoomStatus status = room.state().getStatus();
+            statuses.computeIfAbsent(status, s -> new TreeSet<>()).add(room.getId());
+            if (!room.state().isFree()) {
+                tenants.computeIfAbsent(room.state().getTenant(), t -> new TreeSet<>()).add(room.getId());
+            }
+            cities.computeIfAbsent(room.getCity(), c -> new TreeSet<>()).add(room.getId());
+            counts.computeIfAbsent(room.getCity(), c -> new int[3])[status.ordinal()]++;
+        }
+
+        for (RoomStatus status : RoomStatus.values()) {
+            Set<String> expected = statuses.getOrDefault(status, new TreeSet<>());
+            assertEquals(expected, ids(this.rooms.byStatus(status, null, ALL).getRooms()));
+            assertEquals(expected, ids(this.rooms.byRent(null, status, null, null, null, ALL).getRooms()));
+        }
+        for (Map.Entry<String, Set<String>> tenant : tenants.entrySet()) {
+            assertEquals(tenant.getValue(), ids(this.rooms.byTenant(tenant.getKey())));
+        }
+        for (Map.Entry<String, Set<String>> city : cities.entrySet()) {
+            assertEquals(city.getValue(), ids(this.rooms.byCity(city.getKey(), null, ALL).getRooms()));
+        }
+
+        List<CityStats> stats = this.rooms.stats();
+        assertEquals(counts.size(), stats.size());
+        for (CityStats city : stats) {
+            int[] expected = counts.get(city.getCity());
+            assertEquals(expected[RoomStatus.FREE.ordinal()], city.getFree());
+            assertEquals(expected[RoomStatus.BOOKED.ordinal()], city.getBooked());
+            assertEquals(expected[RoomStatus.RENTED.ordinal()], city.getRented());
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (Room room : all) {
+                if (room.getCity().equals(city.getCity())) {
+                    min = Math.min(min, room.getRent());
+                    max = Math.max(max, room.getRent());
+                }
+            }
+            assertEquals(min, city.getMinRent());
+            assertEquals(max, city.getMaxRent());
+        }
+    }
+
+    private static Set<String> ids(List<Room> rooms) {
+
+        Set<String> ids = new TreeSet<>();
+        for (Room room : rooms) {
+            assertTrue("listed twice: " + room.getId(), ids.add(room.getId()));
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,109 @@
+package service.catalog;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimerWheelTest {
+
+    @Test
+    public void firesAtTheDeadline() throws InterruptedException {
+
+        CountDownLatch fired = new CountDownLatch(1);
+        AtomicLong at = new AtomicLong();
+        TimerWheel<String> wheel = new TimerWheel<>("test-wheel", 10, 64, due -> {
+            at.set(System.currentTimeMillis());
+            fired.countDown();
+        });
+        try {
+            long deadline = System.currentTimeMillis() + 100;
+            wheel.schedule(deadline, "room");
+            assertTrue(fired.await(5, TimeUnit.SECONDS));
+            assertTrue(at.get() >= deadline);
+        } finally {
+            wheel.stop();
+        }
+    }
+
+    @Test
+    public void firesAPastDeadlineOnTheNextTick() throws InterruptedException {
+
+        CountDownLatch fired = new CountDownLatch(1);
+        TimerWheel<String> wheel = new TimerWheel<>("test-wheel", 10, 64, due -> fired.countDown());
+        try {
+            wheel.schedule(System.currentTimeMillis() - 60_000, "room");
+            assertTrue(fired.await(1, TimeUnit.SECONDS));
+        } finally {
+            wheel.stop();
+        }
+    }
+
+    // a deadline further away than one turn of the wheel must not fire on the first visit of its slot
+    @Test
+    public void waitsForTheRightTurn() throws InterruptedException {
+
+        CountDownLatch fired = new CountDownLatch(1);
+        AtomicLong at = new AtomicLong();
+        TimerWheel<String> wheel = new TimerWheel<>("test-wheel", 10, 4, due -> {
+            at.set(System.currentTimeMillis());
+            fired.countDown();
+        });
+        try {
+            long deadline = System.currentTimeMillis() + 200;
+            wheel.schedule(deadline, "room");
+            assertTrue(fired.await(5, TimeUnit.SECONDS));
+            assertTrue(at.get() >= deadline);
+        } finally {
+            wheel.stop();
+        }
+    }
+
+    // entries scheduled while the ticker drains their slot used to wait for the next turn of the wheel
+    @Test
+    public void entriesScheduledDuringATickAreNotLate() throws InterruptedException {
+
+        int entries = 20_000;
+        CountDownLatch fired = new CountDownLatch(entries);
+        AtomicLong latest = new AtomicLong();
+        TimerWheel<Long> wheel = new TimerWheel<>("test-wheel", 1, 512, due -> {
+            long now = System.nanoTime();
+            for (long scheduled : due) {
+                latest.accumulateAndGet(now - scheduled, Math::max);
+                fired.countDown();
+            }
+        });
+        try {
+            for (int i = 0; i < entries; i++) {
+                wheel.schedule(System.currentTimeMillis(), System.nanoTime());
+                if (i % 100 == 0) {
+                    Thread.sleep(1);
+                }
+            }
+            assertTrue(fired.await(10, TimeUnit.SECONDS));
+            assertTrue("an entry waited " + TimeUnit.NANOSECONDS.toMillis(latest.get()) + " ms",
+                    latest.get() < TimeUnit.MILLISECONDS.toNanos(400));
+        } finally {
+            wheel.stop();
+        }
+    }
+
+    @Test
+    public void nothingFiresAfterStop() throws InterruptedException {
+
+        List<String> fired = new CopyOnWriteArrayList<>();
+        TimerWheel<String> wheel = new TimerWheel<>("test-wheel", 10, 64, fired::addAll);
+        wheel.schedule(System.currentTimeMillis() + 50, "room");
+        wheel.stop();
+        Thread.sleep(150);
+        assertFalse(fired.contains("room"));
+        assertEquals(0, fired.size());
+    }
+}
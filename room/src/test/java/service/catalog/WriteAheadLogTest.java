@@ -0,0 +1,186 @@
+package service.catalog;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import service.models.Room;
+import service.models.RoomStatus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WriteAheadLogTest {
+
+    private static final long NEVER = Long.MAX_VALUE;
+    private static final long HOUR = 3_600_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path wal() { return this.folder.getRoot().toPath().resolve("room.wal"); }
+
+    private Path snapshot() { return this.folder.getRoot().toPath().resolve("room.snapshot"); }
+
+    private WriteAheadLog open(RoomCatalog rooms, long compactBytes) throws IOException {
+        return WriteAheadLog.open(wal(), snapshot(), rooms, compactBytes, HOUR);
+    }
+
+    private static Room room(int i) {
+        return new Room("room-" + i, "Street " + i, "City " + (i % 3), "landlord-" + (i % 2), 400 + i);
+    }
+
+    // status, tenant and revision of every room
+    private static Map<String, String> contents(RoomCatalog rooms) {
+
+        Map<String, String> contents = new TreeMap<>();
+        rooms.forEach(room -> contents.put(room.getId(),
+                room.state().getStatus() + "/" + room.state().getTenant() + "/" + room.revision()));
+        return contents;
+    }
+
+    @Test
+    public void replaysEveryChangeOnOpen() throws IOException {
+
+        RoomCatalog rooms = new RoomCatalog();
+        WriteAheadLog log = open(rooms, NEVER);
+        for (int i = 0; i < 20; i++) {
+            rooms.add(room(i));
+        }
+        assertTrue(rooms.book(rooms.get("room-1"), "tenant-1", 0));
+        assertTrue(rooms.book(rooms.get("room-2"), "tenant-2", 0));
+        assertTrue(rooms.rent(rooms.get("room-2")));
+        assertTrue(rooms.book(rooms.get("room-3"), "tenant-3", 0));
+        assertTrue(rooms.cancelBooking(rooms.get("room-3")));
+        rooms.remove("room-4");
+        log.sync();
+        log.close();
+
+        RoomCatalog reopened = new RoomCatalog();
+        WriteAheadLog again = open(reopened, NEVER);
+        try {
+            assertEquals(contents(rooms), contents(reopened));
+            assertEquals(19, reopened.size());
+            assertNull(reopened.get("room-4"));
+            assertEquals(RoomStatus.RENTED, reopened.get("room-2").state().getStatus());
+            assertEquals("tenant-1", reopened.get("room-1").state().getTenant());
+            assertEquals(0, again.snapshotRooms());
+            assertTrue(again.replayedRecords() >= 25);
+        } finally {
+            again.close();
+        }
+    }
+
+    // a crash halfway through a write leaves part of a record behind, the log ends at the last whole one
+    @Test
+    public void dropsATornTail() throws IOException {
+
+        RoomCatalog rooms = new RoomCatalog();
+        WriteAheadLog log = open(rooms, NEVER);
+        for (int i = 0; i < 5; i++) {
+            rooms.add(room(i));
+        }
+        log.sync();
+        log.close();
+        long intact = Files.size(wal());
+        try (FileChannel channel = FileChannel.open(wal(), StandardOpenOption.APPEND)) {
+            ByteBuffer torn = ByteBuffer.allocate(12);
+            torn.putInt(400).putInt(12345).putInt(7).flip();
+            channel.write(torn);
+        }
+
+        RoomCatalog reopened = new RoomCatalog();
+        WriteAheadLog again = open(reopened, NEVER);
+        try {
+            assertEquals(contents(rooms), contents(reopened));
+            assertEquals(intact, Files.size(wal()));
+            // the next record goes where the torn one was, so it is found on the next start
+            reopened.add(room(5));
+            again.sync();
+        } finally {
+            again.close();
+        }
+        RoomCatalog third = new RoomCatalog();
+        open(third, NEVER).close();
+        assertEquals(6, third.size());
+    }
+
+    @Test
+    public void dropsARecordWithABadChecksum() throws IOException {
+
+        RoomCatalog rooms = new RoomCatalog();
+        WriteAheadLog log = open(rooms, NEVER);
+        rooms.add(room(0));
+        rooms.add(room(1));
+        log.sync();
+        long beforeBooking = Files.size(wal());
+        assertTrue(rooms.book(rooms.get("room-0"), "tenant-0", 0));
+        log.sync();
+        log.close();
+        try (FileChannel channel = FileChannel.open(wal(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer payload = ByteBuffer.allocate(1);
+            channel.read(payload, beforeBooking + 8);
+            payload.put(0, (byte) (payload.get(0) ^ 0xff)).rewind();
+            channel.write(payload, beforeBooking + 8);
+        }
+
+        RoomCatalog reopened = new RoomCatalog();
+        WriteAheadLog again = open(reopened, NEVER);
+        try {
+            assertEquals(2, reopened.size());
+            assertTrue(reopened.get("room-0").state().isFree());
+            assertEquals(beforeBooking, Files.size(wal()));
+        } finally {
+            again.close();
+        }
+    }
+
+    // with a tiny compaction size every batch moves the log aside and writes a snapshot
+    @Test
+    public void reopensFromSnapshotAndLog() throws IOException {
+
+        RoomCatalog rooms = new RoomCatalog();
+        WriteAheadLog log = open(rooms, 1);
+        for (int i = 0; i < 50; i++) {
+            rooms.add(room(i));
+            log.sync();
+        }
+        for (int i = 0; i < 50; i += 5) {
+            assertTrue(rooms.book(rooms.get("room-" + i), "tenant-" + i, 0));
+            log.sync();
+        }
+        log.close();
+        assertTrue(log.snapshotsWritten() > 0);
+        assertTrue(Files.exists(snapshot()));
+
+        RoomCatalog reopened = new RoomCatalog();
+        WriteAheadLog again = open(reopened, NEVER);
+        try {
+            assertTrue(again.snapshotRooms() > 0);
+            assertEquals(contents(rooms), contents(reopened));
+        } finally {
+            again.close();
+        }
+    }
+
+    @Test
+    public void refusesWritesOnceClosed() throws IOException {
+
+        RoomCatalog rooms = new RoomCatalog();
+        WriteAheadLog log = open(rooms, NEVER);
+        assertTrue(log.isWritable());
+        log.close();
+        assertFalse(log.isWritable());
+        log.close();
+    }
+}
@@ -6,31 +6,63 @@ import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.exceptions.JWTVerificationException;
 import com.auth0.jwt.interfaces.DecodedJWT;
 import org.glassfish.jersey.server.monitoring.ResponseStatistics;
+import service.config.Settings;
 import service.models.User;
+import service.store.UserStore;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Singleton;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Configuration;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Singleton
 @Path("/")
 public class UserResources {
 
-    private List<User> users;
+    // a page of rooms has at most 1000, each with a landlord and a tenant
+    private static final int MAX_NAMES = 2000;
+
+    private UserStore users;
     private JWTVerifier verifier;
+    private AtomicLong version;
+    private String epoch;
 
-    public UserResources() {
-        this.users = new ArrayList<>();
+    public UserResources(@Context Configuration config) {
+        this.version = new AtomicLong();
+        this.epoch = Long.toString(System.currentTimeMillis(), 36);
         this.verifier = JWT.require(Algorithm.HMAC256("rest_sot_assignment")).build();
+        try {
+            String data = Paths.get(System.getProperty("user.home"), ".rental", "users.db").toString();
+            this.users = UserStore.open(Paths.get(Settings.get(config, "store.path", data)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the user store", e);
+        }
+        if (this.users.size() > 0) {
+            return;
+        }
         this.users.add(new User("7f8365a9-2409-4bee-ac92-b874eeacf159", "tom@ad.min", "Tom", "password", "admin"));
         this.users.add(new User("b26c04c2-cd5b-4337-a6ed-cb7bcfe790a5", "franz@gmail.com", "Franz", "moremoney", "landlord"));
         this.users.add(new User("5ab557a7-98bd-45a9-b6ba-7a8173fd64c3", "luuk@gmail.com", "Luuk", "greedyaf", "landlord"));
         this.users.add(new User("b0e50136-ad54-4737-ab36-a7bb998ac7e3", "john@gmail.com", "John", "pooraf", "student"));
     }
 
+    @PreDestroy
+    public void close() throws IOException {
+
+        this.users.close();
+    }
+
     private boolean isAdmin(String token) {
 
         String permission = decodeToken(token).getSubject();
@@ -41,20 +73,20 @@ public class UserResources {
         return verifier.verify(token);
     }
 
+    // the version only lives in memory and starts at 0 again after a restart, hence the start time in front
+    private EntityTag etag(long version) {
+
+        return new EntityTag(this.epoch + "-" + version);
+    }
+
     private User userExists(String id) {
 
-        for (User user : users) {
-            if (user.getId().equals(id)) { return user; }
-        }
-        return null;
+        return this.users.get(id);
     }
 
     private User userExistsEmail(String email) {
 
-        for (User user : users) {
-            if (user.getEmail().equals(email)) { return user; }
-        }
-        return null;
+        return this.users.getByEmail(email);
     }
 
     @POST
@@ -63,11 +95,16 @@ public class UserResources {
     @Consumes(MediaType.APPLICATION_JSON)
     public Response register(User user) {
 
-        if(userExistsEmail(user.getEmail()) == null) {
+        if (user.getId() == null) {
+            user.setId(UUID.randomUUID().toString());
+        }
+        try {
             this.users.add(user);
-            return Response.status(201).entity(user.createToken()).type(MediaType.TEXT_PLAIN).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(409).entity(e.getMessage()).type(MediaType.TEXT_PLAIN).build();
         }
-        return Response.status(409).entity("Email already in use!").type(MediaType.TEXT_PLAIN).build();
+        this.version.incrementAndGet();
+        return Response.status(201).entity(user.createToken()).type(MediaType.TEXT_PLAIN).build();
     }
 
     @POST
@@ -89,11 +126,17 @@ public class UserResources {
     @GET
     @Path("all")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getUsers(@HeaderParam("Authorization") String token) {
+    public Response getUsers(@HeaderParam("Authorization") String token, @Context Request request) {
 
         try {
             if (isAdmin(token)) {
-                return Response.status(200).entity(this.users).type(MediaType.APPLICATION_JSON).build();
+                long version = this.version.get();
+                Response.ResponseBuilder unchanged = request.evaluatePreconditions(etag(version));
+                if (unchanged != null) {
+                    return unchanged.build();
+                }
+                return Response.status(200).entity(this.users.all()).type(MediaType.APPLICATION_JSON)
+                        .tag(etag(version)).build();
             }
             return Response.status(401).build();
         } catch (JWTVerificationException e) {
@@ -127,9 +170,8 @@ public class UserResources {
 
         try {
             if (isAdmin(token)) {
-                User user = userExists(id);
-                if (user != null) {
-                    this.users.remove(user);
+                if (this.users.remove(id)) {
+                    this.version.incrementAndGet();
                     return Response.status(204).build();
                 }
                 return Response.status(404).entity("User not found!").type(MediaType.TEXT_PLAIN).build();
@@ -159,6 +201,27 @@ public class UserResources {
         }
     }
 
+    // names for many users at once, ids nobody has are left out
+    @POST
+    @Path("names")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response getUserNames(List<String> ids, @HeaderParam("Authorization") String token) {
+
+        try {
+            decodeToken(token);
+            if (ids == null) {
+                return Response.status(400).entity("No ids given!").type(MediaType.TEXT_PLAIN).build();
+            }
+            if (ids.size() > MAX_NAMES) {
+                return Response.status(413).entity("Too many ids!").type(MediaType.TEXT_PLAIN).build();
+            }
+            return Response.status(200).entity(this.users.names(ids)).type(MediaType.APPLICATION_JSON).build();
+        } catch (JWTVerificationException e) {
+            return Response.status(401).build();
+        }
+    }
+
     @GET
     @Path("name/{id}")
     @Produces(MediaType.APPLICATION_JSON)
@@ -176,6 +239,25 @@ public class UserResources {
         }
     }
 
+    @PUT
+    @Path("user/{id}/canbook")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response releaseUser(@PathParam("id") String id, @HeaderParam("Authorization") String token) {
+
+        try {
+            if (isAdmin(token)) {
+                if (this.users.update(id, user -> user.setCanBook(true))) {
+                    this.version.incrementAndGet();
+                    return Response.status(204).build();
+                }
+                return Response.status(404).entity("User not found!").type(MediaType.TEXT_PLAIN).build();
+            }
+            return Response.status(401).build();
+        } catch (JWTVerificationException e) {
+            return Response.status(401).build();
+        }
+    }
+
     @PUT
     @Path("user/update")
     @Produces(MediaType.APPLICATION_JSON)
@@ -184,15 +266,15 @@ public class UserResources {
 
         try {
             decodeToken(token);
-            User usr = userExists(user.getId());
-            if (usr != null) {
-                this.users.remove(usr);
-                this.users.add(user);
+            if (this.users.replace(user)) {
+                this.version.incrementAndGet();
                 return Response.status(204).build();
             }
             return Response.status(401).build();
         } catch (JWTVerificationException e) {
             return Response.status(401).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(409).entity(e.getMessage()).type(MediaType.TEXT_PLAIN).build();
         }
     }
 }
@@ -0,0 +1,498 @@
+package service.store;
+
+import service.models.User;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// users live in an append-only record file; the heap only holds the id and email indexes,
+// and a lookup is one hash probe plus one positional read of the record
+public class UserStore {
+
+    private static final int DATA_MAGIC = 0x55534552;
+    private static final int INDEX_MAGIC = 0x55494458;
+    private static final int DATA_HEADER = 12;
+    private static final byte PUT = 0;
+    private static final byte DELETE = 1;
+    private static final long COMPACT_MIN_BYTES = 16 << 20;
+    private static final int INDEX_EVERY = 100_000;
+
+    private final Path path;
+    private final Path indexPath;
+    private final Map<String, Entry> ids;
+    private final Map<String, String> emails;
+    private final ReadWriteLock lock;
+    private FileChannel channel;
+    private long generation;
+    private long end;
+    private long live;
+    private int sinceIndex;
+
+    private UserStore(Path path) {
+        this.path = path;
+        this.indexPath = path.resolveSibling(path.getFileName() + ".idx");
+        this.ids = new ConcurrentHashMap<>();
+        this.emails = new ConcurrentHashMap<>();
+        this.lock = new ReentrantReadWriteLock();
+    }
+
+    // loads the index snapshot when it matches the record file, then scans the records written after it
+    public static UserStore open(Path path) throws IOException {
+
+        UserStore store = new UserStore(path);
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        store.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (store.channel.size() < DATA_HEADER) {
+            store.generation = System.nanoTime();
+            store.channel.truncate(0);
+            store.channel.write(dataHeader(store.generation), 0);
+            store.channel.force(true);
+            store.end = DATA_HEADER;
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(DATA_HEADER);
+            store.channel.read(header, 0);
+            header.flip();
+            if (header.getInt() != DATA_MAGIC) {
+                throw new IOException("Not a user store " + path);
+            }
+            store.generation = header.getLong();
+            store.end = store.loadIndex();
+            store.replay();
+        }
+        return store;
+    }
+
+    public int size() { return this.ids.size(); }
+
+    public User get(String id) {
+
+        if (id == null) {
+            return null;
+        }
+        this.lock.readLock().lock();
+        try {
+            Entry entry = this.ids.get(id);
+            return entry == null ? null : read(entry);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public User getByEmail(String email) {
+
+        String id = email == null ? null : this.emails.get(email);
+        return id == null ? null : get(id);
+    }
+
+    public List<User> all() {
+
+        this.lock.readLock().lock();
+        try {
+            List<User> users = new ArrayList<>(this.ids.size());
+            for (Entry entry : this.ids.values()) {
+                users.add(read(entry));
+            }
+            return users;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // names of the users that exist among `ids`, read under one lock
+    public Map<String, String> names(Collection<String> ids) {
+
+        Map<String, String> names = new HashMap<>();
+        this.lock.readLock().lock();
+        try {
+            for (String id : ids) {
+                Entry entry = id == null || names.containsKey(id) ? null : this.ids.get(id);
+                if (entry != null) {
+                    names.put(id, read(entry).getName());
+                }
+            }
+            return names;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // throws when the id or the email is already taken
+    public void add(User user) {
+
+        this.lock.writeLock().lock();
+        try {
+            if (this.ids.containsKey(user.getId())) {
+                throw new IllegalArgumentException("Id already in use!");
+            }
+            if (user.getEmail() != null && this.emails.containsKey(user.getEmail())) {
+                throw new IllegalArgumentException("Email already in use!");
+            }
+            put(user);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    // false when there is no such user; throws if the new email belongs to someone else
+    public boolean replace(User user) {
+
+        this.lock.writeLock().lock();
+        try {
+            if (user.getId() == null || !this.ids.containsKey(user.getId())) {
+                return false;
+            }
+            String owner = user.getEmail() == null ? null : this.emails.get(user.getEmail());
+            if (owner != null && !owner.equals(user.getId())) {
+                throw new IllegalArgumentException("Email already in use!");
+            }
+            put(user);
+            return true;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    // reads, changes and writes the user under one lock, so a replace in between can't be undone;
+    // false when there is no such user
+    public boolean update(String id, Consumer<User> change) {
+
+        this.lock.writeLock().lock();
+        try {
+            Entry entry = id == null ? null : this.ids.get(id);
+            if (entry == null) {
+                return false;
+            }
+            User user = read(entry);
+            change.accept(user);
+            put(user);
+            return true;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    public boolean remove(String id) {
+
+        this.lock.writeLock().lock();
+        try {
+            if (id == null || !this.ids.containsKey(id)) {
+                return false;
+            }
+            ByteBuffer frame = frame(DELETE, id, null);
+            append(frame);
+            unindex(id);
+            compactIfNeeded();
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    public void close() throws IOException {
+
+        this.lock.writeLock().lock();
+        try {
+            writeIndex();
+            this.channel.close();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private void put(User user) {
+
+        try {
+            ByteBuffer frame = frame(PUT, user.getId(), user);
+            long offset = append(frame);
+            unindex(user.getId());
+            index(user.getId(), user.getEmail(), offset, frame.limit());
+            compactIfNeeded();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // the record is forced to disk before the index points at it
+    private long append(ByteBuffer frame) throws IOException {
+
+        long offset = this.end;
+        long position = offset;
+        while (frame.hasRemaining()) {
+            position += this.channel.write(frame, position);
+        }
+        this.channel.force(false);
+        this.end = position;
+        frame.rewind();
+        return offset;
+    }
+
+    private void index(String id, String email, long offset, int length) {
+
+        this.ids.put(id, new Entry(offset, length, email));
+        if (email != null) {
+            this.emails.put(email, id);
+        }
+        this.live += length;
+    }
+
+    private void unindex(String id) {
+
+        Entry old = this.ids.remove(id);
+        if (old == null) {
+            return;
+        }
+        if (old.email != null) {
+            this.emails.remove(old.email, id);
+        }
+        this.live -= old.length;
+    }
+
+    private User read(Entry entry) {
+
+        try {
+            byte[] payload = new byte[entry.length - 8];
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            while (buffer.hasRemaining()) {
+                if (this.channel.read(buffer, entry.offset + 8 + buffer.position()) < 0) {
+                    throw new IOException("User record past the end of " + this.path);
+                }
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            in.readByte();
+            return readUser(in, in.readUTF());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void replay() throws IOException {
+
+        long position = this.end;
+        long size = this.channel.size();
+        ByteBuffer header = ByteBuffer.allocate(8);
+        while (position + 8 <= size) {
+            header.clear();
+            this.channel.read(header, position);
+            header.flip();
+            int length = header.getInt();
+            int crc = header.getInt();
+            if (length <= 0 || position + 8 + length > size) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            this.channel.read(ByteBuffer.wrap(payload), position + 8);
+            if (checksum(payload) != crc) {
+                break;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            byte op = in.readByte();
+            String id = in.readUTF();
+            unindex(id);
+            if (op == PUT) {
+                index(id, readUser(in, id).getEmail(), position, 8 + length);
+            }
+            position += 8 + length;
+            this.sinceIndex++;
+        }
+        // anything past the last intact record is a torn write from a crash
+        this.channel.truncate(position);
+        this.end = position;
+    }
+
+    // rewrites the live records once at least half of the file is dead
+    private void compactIfNeeded() throws IOException {
+
+        long dead = this.end - DATA_HEADER - this.live;
+        if (dead > COMPACT_MIN_BYTES && dead > this.live) {
+            compact();
+        } else if (++this.sinceIndex >= INDEX_EVERY) {
+            writeIndex();
+        }
+    }
+
+    private void compact() throws IOException {
+
+        Path next = this.path.resolveSibling(this.path.getFileName() + ".compact");
+        long generation = System.nanoTime();
+        Map<String, Entry> moved = new ConcurrentHashMap<>();
+        try (FileChannel out = FileChannel.open(next, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            out.write(dataHeader(generation), 0);
+            long position = DATA_HEADER;
+            for (Map.Entry<String, Entry> e : this.ids.entrySet()) {
+                Entry entry = e.getValue();
+                ByteBuffer frame = ByteBuffer.allocate(entry.length);
+                while (frame.hasRemaining()) {
+                    this.channel.read(frame, entry.offset + frame.position());
+                }
+                frame.flip();
+                while (frame.hasRemaining()) {
+                    out.write(frame, position + frame.position());
+                }
+                moved.put(e.getKey(), new Entry(position, entry.length, entry.email));
+                position += entry.length;
+            }
+            out.force(true);
+            this.end = position;
+        }
+        this.channel.close();
+        Files.move(next, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.channel = FileChannel.open(this.path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.generation = generation;
+        this.ids.putAll(moved);
+        writeIndex();
+    }
+
+    // the index snapshot names the generation of the record file it was taken from and how much of it it covers
+    private void writeIndex() throws IOException {
+
+        Path next = this.indexPath.resolveSibling(this.indexPath.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(next, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream stream = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(out), 1 << 16));
+            stream.writeInt(INDEX_MAGIC);
+            stream.writeLong(this.generation);
+            stream.writeLong(this.end);
+            stream.writeInt(this.ids.size());
+            for (Map.Entry<String, Entry> e : this.ids.entrySet()) {
+                Entry entry = e.getValue();
+                stream.writeUTF(e.getKey());
+                writeString(stream, entry.email);
+                stream.writeLong(entry.offset);
+                stream.writeInt(entry.length);
+            }
+            stream.flush();
+            out.force(true);
+        }
+        Files.move(next, this.indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.sinceIndex = 0;
+    }
+
+    // returns where the record scan should start: past what the index covers, or the first record
+    private long loadIndex() throws IOException {
+
+        if (!Files.exists(this.indexPath)) {
+            return DATA_HEADER;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(this.indexPath), 1 << 16))) {
+            if (in.readInt() != INDEX_MAGIC || in.readLong() != this.generation) {
+                return DATA_HEADER;
+            }
+            long covered = in.readLong();
+            if (covered > this.channel.size()) {
+                return DATA_HEADER;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String id = in.readUTF();
+                String email = readString(in);
+                index(id, email, in.readLong(), in.readInt());
+            }
+            return covered;
+        } catch (IOException e) {
+            this.ids.clear();
+            this.emails.clear();
+            this.live = 0;
+            return DATA_HEADER;
+        }
+    }
+
+    private static ByteBuffer dataHeader(long generation) {
+
+        ByteBuffer header = ByteBuffer.allocate(DATA_HEADER);
+        header.putInt(DATA_MAGIC).putLong(generation).flip();
+        return header;
+    }
+
+    private static ByteBuffer frame(byte op, String id, User user) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(op);
+        out.writeUTF(id);
+        if (user != null) {
+            writeString(out, user.getEmail());
+            writeString(out, user.getName());
+            writeString(out, user.getPassword());
+            writeString(out, user.getRole());
+            out.writeBoolean(user.getCanBook());
+        }
+        out.flush();
+        byte[] payload = bytes.toByteArray();
+        ByteBuffer frame = ByteBuffer.allocate(8 + payload.length);
+        frame.putInt(payload.length).putInt(checksum(payload)).put(payload).flip();
+        return frame;
+    }
+
+    private static User readUser(DataInput in, String id) throws IOException {
+
+        User user = new User(id, readString(in), readString(in), readString(in), readString(in));
+        user.setCanBook(in.readBoolean());
+        return user;
+    }
+
+    private static int checksum(byte[] payload) {
+
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static final class Entry {
+
+        private final long offset;
+        private final int length;
+        private final String email;
+
+        private Entry(long offset, int length, String email) {
+            this.offset = offset;
+            this.length = length;
+            this.email = email;
+        }
+    }
+}